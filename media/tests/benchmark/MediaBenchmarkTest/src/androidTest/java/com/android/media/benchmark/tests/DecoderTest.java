@@ -17,7 +17,6 @@
 package com.android.media.benchmark.tests;
 
 import android.content.Context;
-import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.util.Log;
 
@@ -25,11 +24,16 @@ import androidx.test.platform.app.InstrumentationRegistry;
 
 import com.android.media.benchmark.R;
 import com.android.media.benchmark.library.CodecUtils;
+import com.android.media.benchmark.library.ConcurrentDecoder;
+import com.android.media.benchmark.library.CsvStatsReporter;
 import com.android.media.benchmark.library.Decoder;
 import com.android.media.benchmark.library.Extractor;
 import com.android.media.benchmark.library.Native;
+import com.android.media.benchmark.library.SampleStore;
 import com.android.media.benchmark.library.Stats;
+import com.android.media.benchmark.library.StatsReporter;
 
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -40,10 +44,8 @@ import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -59,8 +61,18 @@ public class DecoderTest {
     private static final String mOutputFilePath = mContext.getString(R.string.output_file_path);
     private static final String mStatsFile =
             mContext.getExternalFilesDir(null) + "/Decoder." + System.currentTimeMillis() + ".csv";
+    private static final String mTimelineFile = mContext.getExternalFilesDir(null)
+            + "/Decoder.timeline." + System.currentTimeMillis() + ".csv";
+    private static final String mConcurrencyFile = mContext.getExternalFilesDir(null)
+            + "/Decoder.concurrency." + System.currentTimeMillis() + ".csv";
+    private static StatsReporter mStatsReporter;
+    private static StatsReporter mTimelineReporter;
+    private static StatsReporter mConcurrencyReporter;
     private static final String TAG = "DecoderTest";
     private static final long PER_TEST_TIMEOUT_MS = 60000;
+    private static final long CONCURRENT_TEST_TIMEOUT_MS = 300000;
+    // Number of simultaneous decode sessions, as run on devices
+    private static final int CONCURRENT_INSTANCES = 4;
     private static final boolean DEBUG = false;
     private static final boolean WRITE_OUTPUT = false;
     private String mInputFile;
@@ -112,10 +124,34 @@ public class DecoderTest {
 
     @BeforeClass
     public static void writeStatsHeaderToFile() throws IOException {
+        // Keep the stats file open for the whole suite instead of reopening it per test
+        mStatsReporter = new CsvStatsReporter(mStatsFile);
         Stats mStats = new Stats();
-        boolean status = mStats.writeStatsHeader(mStatsFile);
-        assertTrue("Unable to open stats file for writing!", status);
+        mStats.writeStatsHeader(mStatsReporter);
+        assertTrue("Unable to open stats file for writing!", new File(mStatsFile).exists());
         Log.d(TAG, "Saving Benchmark results in: " + mStatsFile);
+        mTimelineReporter = new CsvStatsReporter(mTimelineFile);
+        mStats.writeTimelineHeader(mTimelineReporter);
+        Log.d(TAG, "Saving throughput timeline in: " + mTimelineFile);
+        mConcurrencyReporter = new CsvStatsReporter(mConcurrencyFile);
+        ConcurrentDecoder.writeConcurrencyHeader(mConcurrencyReporter);
+        Log.d(TAG, "Saving concurrency results in: " + mConcurrencyFile);
+    }
+
+    @AfterClass
+    public static void closeStatsReporter() throws IOException {
+        if (mStatsReporter != null) {
+            mStatsReporter.close();
+            mStatsReporter = null;
+        }
+        if (mTimelineReporter != null) {
+            mTimelineReporter.close();
+            mTimelineReporter = null;
+        }
+        if (mConcurrencyReporter != null) {
+            mConcurrencyReporter.close();
+            mConcurrencyReporter = null;
+        }
     }
 
     @Test(timeout = PER_TEST_TIMEOUT_MS)
@@ -128,8 +164,6 @@ public class DecoderTest {
         Extractor extractor = new Extractor();
         int trackCount = extractor.setUpExtractor(fileDescriptor);
         assertTrue("Extraction failed. No tracks for file: " + mInputFile, (trackCount > 0));
-        ArrayList<ByteBuffer> inputBuffer = new ArrayList<>();
-        ArrayList<MediaCodec.BufferInfo> frameInfo = new ArrayList<>();
         for (int currentTrack = 0; currentTrack < trackCount; currentTrack++) {
             extractor.selectExtractorTrack(currentTrack);
             MediaFormat format = extractor.getFormat(currentTrack);
@@ -138,22 +172,15 @@ public class DecoderTest {
             assertTrue("No suitable codecs found for file: " + mInputFile + " track : " +
                     currentTrack + " mime: " + mime, (mediaCodecs.size() > 0));
 
-            // Get samples from extractor
-            int sampleSize;
-            do {
-                sampleSize = extractor.getFrameSample();
-                MediaCodec.BufferInfo bufInfo = new MediaCodec.BufferInfo();
-                MediaCodec.BufferInfo info = extractor.getBufferInfo();
-                ByteBuffer dataBuffer = ByteBuffer.allocate(info.size);
-                dataBuffer.put(extractor.getFrameBuffer().array(), 0, info.size);
-                bufInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
-                inputBuffer.add(dataBuffer);
-                frameInfo.add(bufInfo);
-                if (DEBUG) {
-                    Log.d(TAG, "Extracted bufInfo: flag = " + bufInfo.flags + " timestamp = " +
-                            bufInfo.presentationTimeUs + " size = " + bufInfo.size);
+            // Get samples from extractor, they are shared by all the codecs
+            SampleStore samples = SampleStore.fromExtractor(extractor);
+            if (DEBUG) {
+                for (int index = 0; index < samples.getNumSamples(); index++) {
+                    Log.d(TAG, "Extracted bufInfo: flag = " + samples.getFlags(index) +
+                            " timestamp = " + samples.getPresentationTimeUs(index) +
+                            " size = " + samples.getSize(index));
                 }
-            } while (sampleSize > 0);
+            }
             for (String codecName : mediaCodecs) {
                 FileOutputStream decodeOutputStream = null;
                 if (WRITE_OUTPUT) {
@@ -171,12 +198,12 @@ public class DecoderTest {
                 }
                 Decoder decoder = new Decoder();
                 decoder.setupDecoder(decodeOutputStream);
-                int status = decoder.decode(inputBuffer, frameInfo, mAsyncMode, format, codecName);
+                int status = decoder.decode(samples, mAsyncMode, format, codecName);
                 decoder.deInitCodec();
                 assertEquals("Decoder returned error " + status + " for file: " + mInputFile +
                         " with codec: " + codecName, 0, status);
                 decoder.dumpStatistics(mInputFile, codecName, (mAsyncMode ? "async" : "sync"),
-                        extractor.getClipDuration(), mStatsFile);
+                        extractor.getClipDuration(), mStatsReporter, mTimelineReporter);
                 Log.i(TAG, "Decoding Successful for file: " + mInputFile + " with codec: " +
                         codecName);
                 decoder.resetDecoder();
@@ -185,8 +212,57 @@ public class DecoderTest {
                 }
             }
             extractor.unselectExtractorTrack(currentTrack);
-            inputBuffer.clear();
-            frameInfo.clear();
+        }
+        extractor.deinitExtractor();
+        fileInput.close();
+    }
+
+    @Test(timeout = CONCURRENT_TEST_TIMEOUT_MS)
+    public void testConcurrentDecoder() throws IOException, InterruptedException {
+        File inputFile = new File(mInputFilePath + mInputFile);
+        assertTrue("Cannot find " + mInputFile + " in directory " + mInputFilePath,
+                inputFile.exists());
+        FileInputStream fileInput = new FileInputStream(inputFile);
+        FileDescriptor fileDescriptor = fileInput.getFD();
+        Extractor extractor = new Extractor();
+        int trackCount = extractor.setUpExtractor(fileDescriptor);
+        assertTrue("Extraction failed. No tracks for file: " + mInputFile, (trackCount > 0));
+        String mode = mAsyncMode ? "async" : "sync";
+        for (int currentTrack = 0; currentTrack < trackCount; currentTrack++) {
+            extractor.selectExtractorTrack(currentTrack);
+            MediaFormat format = extractor.getFormat(currentTrack);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            List<String> mediaCodecs = CodecUtils.selectCodecs(mime, false);
+            assertTrue("No suitable codecs found for file: " + mInputFile + " track : " +
+                    currentTrack + " mime: " + mime, (mediaCodecs.size() > 0));
+
+            // Get samples from extractor, they are shared by all the instances
+            SampleStore samples = SampleStore.fromExtractor(extractor);
+            for (String codecName : mediaCodecs) {
+                List<String> codecNames = Arrays.asList(codecName);
+                // Single instance first, as the baseline for the scaling efficiency
+                ConcurrentDecoder baseline = new ConcurrentDecoder(1);
+                int status = baseline.decode(samples, mAsyncMode, format, codecNames);
+                assertEquals("Decoder returned error " + status + " for file: " + mInputFile +
+                        " with codec: " + codecName, 0, status);
+                double baselineFramesPerSec = baseline.getAggregateFramesPerSec();
+                baseline.dumpConcurrency(mInputFile, codecName, mode, baselineFramesPerSec,
+                        mConcurrencyReporter);
+
+                ConcurrentDecoder decoders = new ConcurrentDecoder(CONCURRENT_INSTANCES);
+                status = decoders.decode(samples, mAsyncMode, format, codecNames);
+                assertEquals("Concurrent decoders returned error " + status + " for file: " +
+                        mInputFile + " with codec: " + codecName, 0, status);
+                decoders.dumpStatistics(mInputFile, mode, extractor.getClipDuration(),
+                        mStatsReporter);
+                decoders.dumpConcurrency(mInputFile, codecName, mode, baselineFramesPerSec,
+                        mConcurrencyReporter);
+                Log.i(TAG, "Concurrent decoding of " + mInputFile + " with " +
+                        CONCURRENT_INSTANCES + " instances of " + codecName + ": " +
+                        decoders.getAggregateFramesPerSec() + " fps, scaling efficiency " +
+                        decoders.getScalingEfficiency(baselineFramesPerSec));
+            }
+            extractor.unselectExtractorTrack(currentTrack);
         }
         extractor.deinitExtractor();
         fileInput.close();
@@ -28,11 +28,13 @@ import androidx.test.platform.app.InstrumentationRegistry;
 
 import com.android.media.benchmark.R;
 import com.android.media.benchmark.library.CodecUtils;
+import com.android.media.benchmark.library.CsvStatsReporter;
 import com.android.media.benchmark.library.Decoder;
 import com.android.media.benchmark.library.Encoder;
 import com.android.media.benchmark.library.Extractor;
 import com.android.media.benchmark.library.Native;
 import com.android.media.benchmark.library.Stats;
+import com.android.media.benchmark.library.StatsReporter;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -64,6 +66,7 @@ public class EncoderTest {
     private static final String mOutputFilePath = mContext.getString(R.string.output_file_path);
     private static final String mStatsFile =
             mContext.getExternalFilesDir(null) + "/Encoder." + System.currentTimeMillis() + ".csv";
+    private static StatsReporter mStatsReporter;
     private static final String TAG = "EncoderTest";
     private static final boolean DEBUG = false;
     private static final boolean WRITE_OUTPUT = false;
@@ -144,12 +147,22 @@ public class EncoderTest {
 
     @BeforeClass
     public static void writeStatsHeaderToFile() throws IOException {
+        // Keep the stats file open for the whole suite instead of reopening it per test
+        mStatsReporter = new CsvStatsReporter(mStatsFile);
         Stats mStats = new Stats();
-        boolean status = mStats.writeStatsHeader(mStatsFile);
-        assertTrue("Unable to open stats file for writing!", status);
+        mStats.writeStatsHeader(mStatsReporter);
+        assertTrue("Unable to open stats file for writing!", new File(mStatsFile).exists());
         Log.d(TAG, "Saving Benchmark results in: " + mStatsFile);
     }
 
+    @AfterClass
+    public static void closeStatsReporter() throws IOException {
+        if (mStatsReporter != null) {
+            mStatsReporter.close();
+            mStatsReporter = null;
+        }
+    }
+
     @BeforeClass
     public static void prepareInput() throws IOException, InterruptedException {
 
@@ -264,7 +277,8 @@ public class EncoderTest {
                     encodeFormat.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
                 }
                 Encoder encoder = new Encoder();
-                encoder.setupEncoder(encodeOutputStream, eleStream);
+                // Map the raw input, so that feeding it costs no copy through an array
+                encoder.setupEncoder(encodeOutputStream, eleStream, true);
                 status = encoder.encode(codecName, encodeFormat, mMime, ENCODE_DEFAULT_FRAME_RATE,
                         mSampleRate, frameSize, asyncMode);
                 encoder.deInitEncoder();
@@ -285,7 +299,7 @@ public class EncoderTest {
                             (eleStream.getChannel().size() / (mSampleRate * mNumChannel)) * 1000000;
                 }
                 encoder.dumpStatistics(inputReference, codecName, (asyncMode ? "async" : "sync"),
-                        durationUs, mStatsFile);
+                        durationUs, mStatsReporter);
                 Log.i(TAG, "Encoding complete for mime: " + mMime + " with codec: " + codecName +
                         " for aSyncMode = " + asyncMode);
                 encoder.resetEncoder();
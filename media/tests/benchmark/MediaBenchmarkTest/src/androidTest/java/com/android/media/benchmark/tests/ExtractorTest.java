@@ -17,9 +17,11 @@
 package com.android.media.benchmark.tests;
 
 import com.android.media.benchmark.R;
+import com.android.media.benchmark.library.CsvStatsReporter;
 import com.android.media.benchmark.library.Extractor;
 import com.android.media.benchmark.library.Native;
 import com.android.media.benchmark.library.Stats;
+import com.android.media.benchmark.library.StatsReporter;
 
 import android.content.Context;
 import android.media.MediaFormat;
@@ -27,6 +29,7 @@ import android.util.Log;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -52,6 +55,7 @@ public class ExtractorTest {
     private static final String mInputFilePath = mContext.getString(R.string.input_file_path);
     private static final String mStatsFile = mContext.getExternalFilesDir(null) + "/Extractor."
             + System.currentTimeMillis() + ".csv";
+    private static StatsReporter mStatsReporter;
     private static final String TAG = "ExtractorTest";
     private String mInputFileName;
     private int mTrackId;
@@ -81,12 +85,22 @@ public class ExtractorTest {
 
     @BeforeClass
     public static void writeStatsHeaderToFile() throws IOException {
+        // Keep the stats file open for the whole suite instead of reopening it per test
+        mStatsReporter = new CsvStatsReporter(mStatsFile);
         Stats mStats = new Stats();
-        boolean status = mStats.writeStatsHeader(mStatsFile);
-        assertTrue("Unable to open stats file for writing!", status);
+        mStats.writeStatsHeader(mStatsReporter);
+        assertTrue("Unable to open stats file for writing!", new File(mStatsFile).exists());
         Log.d(TAG, "Saving Benchmark results in: " + mStatsFile);
     }
 
+    @AfterClass
+    public static void closeStatsReporter() throws IOException {
+        if (mStatsReporter != null) {
+            mStatsReporter.close();
+            mStatsReporter = null;
+        }
+    }
+
     @Test
     public void testExtractor() throws IOException {
         File inputFile = new File(mInputFilePath + mInputFileName);
@@ -102,7 +116,7 @@ public class ExtractorTest {
         assertEquals("Extraction failed for " + mInputFileName, 0, status);
         Log.i(TAG, "Extracted " + mInputFileName + " successfully.");
         extractor.deinitExtractor();
-        extractor.dumpStatistics(mInputFileName, mime, mStatsFile);
+        extractor.dumpStatistics(mInputFileName, mime, mStatsReporter);
         fileInput.close();
     }
 
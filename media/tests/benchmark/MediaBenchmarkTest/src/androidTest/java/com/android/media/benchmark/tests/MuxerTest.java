@@ -16,10 +16,12 @@
 package com.android.media.benchmark.tests;
 
 import com.android.media.benchmark.R;
+import com.android.media.benchmark.library.CsvStatsReporter;
 import com.android.media.benchmark.library.Extractor;
 import com.android.media.benchmark.library.Muxer;
 import com.android.media.benchmark.library.Native;
 import com.android.media.benchmark.library.Stats;
+import com.android.media.benchmark.library.StatsReporter;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
@@ -29,6 +31,7 @@ import android.media.MediaFormat;
 import android.media.MediaMuxer;
 import android.util.Log;
 
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -59,6 +62,7 @@ public class MuxerTest {
     private static final String mInputFilePath = mContext.getString(R.string.input_file_path);
     private static final String mStatsFile =
             mContext.getExternalFilesDir(null) + "/Muxer." + System.currentTimeMillis() + ".csv";
+    private static StatsReporter mStatsReporter;
     private static final String TAG = "MuxerTest";
     private static final Map<String, Integer> mMapFormat = Map.of(
             "mp4", MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4,
@@ -101,12 +105,22 @@ public class MuxerTest {
 
     @BeforeClass
     public static void writeStatsHeaderToFile() throws IOException {
+        // Keep the stats file open for the whole suite instead of reopening it per test
+        mStatsReporter = new CsvStatsReporter(mStatsFile);
         Stats mStats = new Stats();
-        boolean status = mStats.writeStatsHeader(mStatsFile);
-        assertTrue("Unable to open stats file for writing!", status);
+        mStats.writeStatsHeader(mStatsReporter);
+        assertTrue("Unable to open stats file for writing!", new File(mStatsFile).exists());
         Log.d(TAG, "Saving Benchmark results in: " + mStatsFile);
     }
 
+    @AfterClass
+    public static void closeStatsReporter() throws IOException {
+        if (mStatsReporter != null) {
+            mStatsReporter.close();
+            mStatsReporter = null;
+        }
+    }
+
     @Test
     public void testMuxer() throws IOException {
         File inputFile = new File(mInputFilePath + mInputFileName);
@@ -145,7 +159,8 @@ public class MuxerTest {
             assertEquals("Cannot perform write operation for " + mInputFileName, 0, status);
             Log.i(TAG, "Muxed " + mInputFileName + " successfully.");
             muxer.deInitMuxer();
-            muxer.dumpStatistics(mInputFileName, mFormat, extractor.getClipDuration(), mStatsFile);
+            muxer.dumpStatistics(mInputFileName, mFormat, extractor.getClipDuration(),
+                    mStatsReporter);
             muxer.resetMuxer();
             extractor.unselectExtractorTrack(currentTrack);
             inputBufferInfo.clear();
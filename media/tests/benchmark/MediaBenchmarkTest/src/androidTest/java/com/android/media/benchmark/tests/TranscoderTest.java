@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.tests;
+
+import android.content.Context;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import static android.media.MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.media.benchmark.R;
+import com.android.media.benchmark.library.CodecUtils;
+import com.android.media.benchmark.library.CsvStatsReporter;
+import com.android.media.benchmark.library.Extractor;
+import com.android.media.benchmark.library.SampleStore;
+import com.android.media.benchmark.library.StatsReporter;
+import com.android.media.benchmark.library.Transcoder;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class TranscoderTest {
+    private static final Context mContext =
+            InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private static final String mInputFilePath = mContext.getString(R.string.input_file_path);
+    private static final String mTranscodeFile = mContext.getExternalFilesDir(null)
+            + "/Transcoder." + System.currentTimeMillis() + ".csv";
+    private static StatsReporter mTranscodeReporter;
+    private static final String TAG = "TranscoderTest";
+    private static final long PER_TEST_TIMEOUT_MS = 300000;
+    private static final int ENCODE_DEFAULT_FRAME_RATE = 25;
+    private static final int ENCODE_DEFAULT_VIDEO_BIT_RATE = 8000000 /* 8 Mbps */;
+    private static final int ENCODE_MIN_VIDEO_BIT_RATE = 600000 /* 600 Kbps */;
+    private static final int ENCODE_DEFAULT_AUDIO_BIT_RATE = 128000 /* 128 Kbps */;
+    private static final int ENCODE_I_FRAME_INTERVAL = 1;
+    private String mInputFile;
+    private String mMime;
+    private int mBitRate;
+    private boolean mAsyncMode;
+
+    public TranscoderTest(String inputFile, String mime, int bitRate, boolean asyncMode) {
+        this.mInputFile = inputFile;
+        this.mMime = mime;
+        this.mBitRate = bitRate;
+        this.mAsyncMode = asyncMode;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> input() {
+        return Arrays.asList(new Object[][]{
+                // Parameters: Filename, mimeType to encode to, bitrate, asyncMode
+                // Audio Sync Test
+                {"bbb_48000hz_2ch_100kbps_opus_30sec.webm", MediaFormat.MIMETYPE_AUDIO_AAC,
+                        ENCODE_DEFAULT_AUDIO_BIT_RATE, false},
+                {"bbb_44100hz_2ch_128kbps_aac_30sec.mp4", MediaFormat.MIMETYPE_AUDIO_FLAC,
+                        ENCODE_DEFAULT_AUDIO_BIT_RATE, false},
+                // Audio Async Test
+                {"bbb_48000hz_2ch_100kbps_opus_30sec.webm", MediaFormat.MIMETYPE_AUDIO_AAC,
+                        ENCODE_DEFAULT_AUDIO_BIT_RATE, true},
+                {"bbb_44100hz_2ch_128kbps_aac_30sec.mp4", MediaFormat.MIMETYPE_AUDIO_FLAC,
+                        ENCODE_DEFAULT_AUDIO_BIT_RATE, true},
+                // Video Sync Test
+                {"crowd_176x144_25fps_6000kbps_mpeg4.mp4", MediaFormat.MIMETYPE_VIDEO_AVC,
+                        ENCODE_MIN_VIDEO_BIT_RATE, false},
+                {"crowd_1920x1080_25fps_4000kbps_h265.mkv", MediaFormat.MIMETYPE_VIDEO_AVC,
+                        ENCODE_DEFAULT_VIDEO_BIT_RATE, false},
+                // Video Async Test
+                {"crowd_176x144_25fps_6000kbps_mpeg4.mp4", MediaFormat.MIMETYPE_VIDEO_AVC,
+                        ENCODE_MIN_VIDEO_BIT_RATE, true},
+                {"crowd_1920x1080_25fps_4000kbps_h265.mkv", MediaFormat.MIMETYPE_VIDEO_AVC,
+                        ENCODE_DEFAULT_VIDEO_BIT_RATE, true}});
+    }
+
+    @BeforeClass
+    public static void writeTranscodeHeaderToFile() throws IOException {
+        mTranscodeReporter = new CsvStatsReporter(mTranscodeFile);
+        Transcoder.writeTranscodeHeader(mTranscodeReporter);
+        assertTrue("Unable to open stats file for writing!", new File(mTranscodeFile).exists());
+        Log.d(TAG, "Saving transcode results in: " + mTranscodeFile);
+    }
+
+    @AfterClass
+    public static void closeTranscodeReporter() throws IOException {
+        if (mTranscodeReporter != null) {
+            mTranscodeReporter.close();
+            mTranscodeReporter = null;
+        }
+    }
+
+    private MediaFormat createEncodeFormat(MediaFormat decodeFormat) {
+        MediaFormat encodeFormat;
+        if (mMime.startsWith("video/")) {
+            encodeFormat = MediaFormat.createVideoFormat(mMime,
+                    decodeFormat.getInteger(MediaFormat.KEY_WIDTH),
+                    decodeFormat.getInteger(MediaFormat.KEY_HEIGHT));
+            encodeFormat.setInteger(MediaFormat.KEY_FRAME_RATE, ENCODE_DEFAULT_FRAME_RATE);
+            encodeFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, ENCODE_I_FRAME_INTERVAL);
+            encodeFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, COLOR_FormatYUV420Flexible);
+        } else {
+            encodeFormat = MediaFormat.createAudioFormat(mMime,
+                    decodeFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                    decodeFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+        }
+        encodeFormat.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+        return encodeFormat;
+    }
+
+    @Test(timeout = PER_TEST_TIMEOUT_MS)
+    public void testTranscoder() throws IOException, InterruptedException {
+        File inputFile = new File(mInputFilePath + mInputFile);
+        assertTrue("Cannot find " + mInputFile + " in directory " + mInputFilePath,
+                inputFile.exists());
+        FileInputStream fileInput = new FileInputStream(inputFile);
+        FileDescriptor fileDescriptor = fileInput.getFD();
+        Extractor extractor = new Extractor();
+        int trackCount = extractor.setUpExtractor(fileDescriptor);
+        assertTrue("Extraction failed. No tracks for file: " + mInputFile, (trackCount > 0));
+        String mode = mAsyncMode ? "async" : "sync";
+        List<String> encoders = CodecUtils.selectCodecs(mMime, true);
+        assertTrue("No suitable codecs found for mimetype: " + mMime, (encoders.size() > 0));
+        for (int currentTrack = 0; currentTrack < trackCount; currentTrack++) {
+            extractor.selectExtractorTrack(currentTrack);
+            MediaFormat format = extractor.getFormat(currentTrack);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            List<String> decoders = CodecUtils.selectCodecs(mime, false);
+            assertTrue("No suitable codecs found for file: " + mInputFile + " track : " +
+                    currentTrack + " mime: " + mime, (decoders.size() > 0));
+            if (mime.startsWith("video/")) {
+                // The decoded frames go as they are to the encoder
+                format.setInteger(MediaFormat.KEY_COLOR_FORMAT, COLOR_FormatYUV420Flexible);
+            }
+            MediaFormat encodeFormat = createEncodeFormat(format);
+
+            // Get samples from extractor, they are shared by all the transcodes
+            SampleStore samples = SampleStore.fromExtractor(extractor);
+            for (String decoderName : decoders) {
+                for (String encoderName : encoders) {
+                    Transcoder transcoder = new Transcoder();
+                    int status = transcoder.transcode(samples, mAsyncMode, format, decoderName,
+                            encodeFormat, encoderName);
+                    assertEquals("Transcoder returned error " + status + " for file: " +
+                            mInputFile + " with decoder: " + decoderName + " encoder: " +
+                            encoderName, 0, status);
+                    transcoder.dumpTranscode(mInputFile, decoderName, encoderName, mode,
+                            mTranscodeReporter);
+                    Log.i(TAG, "Transcoding " + mInputFile + " with " + decoderName + " and " +
+                            encoderName + ": " + transcoder.getFramesPerSec() + " fps, decode " +
+                            transcoder.getDecodeUtilization() + ", copy " +
+                            transcoder.getCopyUtilization() + ", encode " +
+                            transcoder.getEncodeUtilization());
+                }
+            }
+            extractor.unselectExtractorTrack(currentTrack);
+        }
+        extractor.deinitExtractor();
+        fileInput.close();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Delays the whole schedule by the output delay of the decoder, as a player pre-rolls,
+ * then drops the frames queued more than a threshold after their delayed deadline.
+ * <p>
+ * Some decoders do not output at a steady pace from the start, e.g. AV1 decoders holding
+ * frames back until a superframe is complete. The delay is learned from the first frames
+ * of a stream, the latest of them setting it, and none of them is dropped. It is kept per
+ * mime type and decoder, so that later streams of the same decoder start with it; each
+ * stream learns it again, so that a single slow start does not stick.
+ */
+public class AdaptivePreRollPolicy implements FrameReleasePolicy {
+    private static final String TAG = "AdaptivePreRollPolicy";
+    private static final int DEFAULT_LEARNING_FRAMES = 16;
+    // Delay learned for each mime type and decoder, shared by all the instances
+    private static final ConcurrentHashMap<String, Long> sLearnedDelaysNs =
+            new ConcurrentHashMap<>();
+
+    private final int mLearningFrames;
+    private final long mThresholdNs;
+    private String mKey;
+    private int mNumFrames;
+    private long mDelayNs;
+    // Delay seen in the first frames of this stream
+    private long mLearnedDelayNs;
+
+    public AdaptivePreRollPolicy() { this(DEFAULT_LEARNING_FRAMES, DEFAULT_THRESHOLD_NS); }
+
+    /**
+     * @param learningFrames Number of frames at the start of a stream the delay is learned
+     *                       from
+     * @param thresholdNs    Time after its delayed deadline a frame can be queued and still
+     *                       be rendered
+     */
+    public AdaptivePreRollPolicy(int learningFrames, long thresholdNs) {
+        if (learningFrames <= 0) {
+            throw new IllegalArgumentException("Invalid learning frames " + learningFrames);
+        }
+        mLearningFrames = learningFrames;
+        mThresholdNs = thresholdNs;
+    }
+
+    private static String getKey(String mime, String codecName) {
+        return mime + "/" + codecName;
+    }
+
+    /**
+     * Returns the delay learned for the given mime type and decoder, 0 if none yet.
+     */
+    public static long getLearnedDelayNs(String mime, String codecName) {
+        Long delayNs = sLearnedDelaysNs.get(getKey(mime, codecName));
+        return delayNs != null ? delayNs : 0;
+    }
+
+    /** Forgets the delays learned so far. */
+    public static void clearLearnedDelays() { sLearnedDelaysNs.clear(); }
+
+    @Override
+    public void start(String mime, String codecName) {
+        mKey = getKey(mime, codecName);
+        mNumFrames = 0;
+        mDelayNs = getLearnedDelayNs(mime, codecName);
+        mLearnedDelayNs = 0;
+    }
+
+    /** Returns the time the schedule is delayed by. */
+    public long getDelayNs() { return mDelayNs; }
+
+    @Override
+    public long getReleaseTimeNs(long deadlineNs, long queueTimeNs, long nowNs) {
+        long lateNs = queueTimeNs - deadlineNs;
+        if (mNumFrames < mLearningFrames) {
+            mLearnedDelayNs = Math.max(mLearnedDelayNs, lateNs);
+            // The schedule only moves later, so that frames are released in order
+            mDelayNs = Math.max(mDelayNs, mLearnedDelayNs);
+            if (++mNumFrames == mLearningFrames) {
+                Log.i(TAG, "Learned output delay of " + mKey + ": " + mLearnedDelayNs + " ns");
+                sLearnedDelaysNs.put(mKey, mLearnedDelayNs);
+            }
+        } else if (lateNs - mDelayNs > mThresholdNs) {
+            return DROP;
+        }
+        return deadlineNs + mDelayNs;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind sink for codec output, so that dumping the output does not stall the codec
+ * callback thread and skew the measured timings.
+ * <p>
+ * {@link #write(ByteBuffer)} copies the data into one of a fixed pool of reusable direct
+ * buffers and returns; a dedicated thread writes the filled buffers to a file channel in
+ * order. When every buffer of the pool is waiting to be written, the caller either waits
+ * for one (BLOCK, nothing is lost but the wait is counted as a late write) or the data is
+ * dropped (DROP, the timing is not disturbed but the dump is incomplete).
+ */
+public class AsyncOutputWriter implements AutoCloseable {
+    private static final String TAG = "AsyncOutputWriter";
+    private static final int DEFAULT_NUM_BUFFERS = 8;
+    private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    // Queued after the last buffer to stop the writer thread
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    public enum Policy {
+        /** Wait for a free buffer when all of them are in use. */
+        BLOCK,
+        /** Drop the data when all the buffers are in use. */
+        DROP
+    }
+
+    private final FileChannel mChannel;
+    private final Policy mPolicy;
+    private final ArrayBlockingQueue<ByteBuffer> mFreeBuffers;
+    private final ArrayBlockingQueue<ByteBuffer> mFilledBuffers;
+    private final Thread mWriterThread;
+    private final AtomicLong mDroppedWrites = new AtomicLong();
+    private final AtomicLong mLateWrites = new AtomicLong();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    // Orders the queueing of a filled buffer against close, neither of them can block
+    private final Object mLock = new Object();
+    private volatile boolean mClosed;
+    private volatile IOException mWriteError;
+
+    public AsyncOutputWriter(FileChannel channel, Policy policy) {
+        this(channel, policy, DEFAULT_NUM_BUFFERS, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates the writer and starts its thread.
+     *
+     * @param channel    Channel where the data is written
+     * @param policy     What to do when all the buffers are in use
+     * @param numBuffers Number of buffers in the pool
+     * @param bufferSize Initial size of each buffer, a buffer grows when a larger write
+     *                   is copied into it
+     */
+    public AsyncOutputWriter(FileChannel channel, Policy policy, int numBuffers,
+            int bufferSize) {
+        if (numBuffers <= 0 || bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid pool: buffers " + numBuffers
+                    + " size " + bufferSize);
+        }
+        mChannel = channel;
+        mPolicy = policy;
+        mFreeBuffers = new ArrayBlockingQueue<>(numBuffers);
+        // One more slot for the end of stream marker
+        mFilledBuffers = new ArrayBlockingQueue<>(numBuffers + 1);
+        for (int idx = 0; idx < numBuffers; idx++) {
+            mFreeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, TAG);
+        mWriterThread.start();
+    }
+
+    /**
+     * Queues the remaining bytes of the given buffer to be written. The position of the
+     * buffer is left unchanged.
+     *
+     * @return false if the data was dropped
+     */
+    public boolean write(ByteBuffer data) throws InterruptedException {
+        if (mClosed) {
+            mDroppedWrites.incrementAndGet();
+            return false;
+        }
+        ByteBuffer buffer = mFreeBuffers.poll();
+        if (buffer == null) {
+            if (mPolicy == Policy.DROP) {
+                mDroppedWrites.incrementAndGet();
+                return false;
+            }
+            mLateWrites.incrementAndGet();
+            buffer = mFreeBuffers.take();
+        }
+        if (buffer.capacity() < data.remaining()) {
+            buffer = ByteBuffer.allocateDirect(data.remaining());
+        }
+        int position = data.position();
+        buffer.clear();
+        buffer.put(data);
+        buffer.flip();
+        data.position(position);
+        synchronized (mLock) {
+            // close may have queued the end of stream while the data was copied
+            if (mClosed) {
+                mFreeBuffers.offer(buffer);
+                mDroppedWrites.incrementAndGet();
+                return false;
+            }
+            mFilledBuffers.put(buffer);
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                ByteBuffer buffer = mFilledBuffers.take();
+                if (buffer == END_OF_STREAM) {
+                    break;
+                }
+                try {
+                    while (buffer.hasRemaining()) {
+                        mBytesWritten.addAndGet(mChannel.write(buffer));
+                    }
+                } catch (IOException e) {
+                    if (mWriteError == null) {
+                        Log.e(TAG, "Error writing output: " + e.toString());
+                    }
+                    mWriteError = e;
+                }
+                mFreeBuffers.put(buffer);
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Writer thread interrupted");
+        }
+    }
+
+    /**
+     * Writes out the data queued so far and stops the writer thread. Later writes, and
+     * writes still copying their data, are dropped.
+     *
+     * @throws IOException if writing any of the data failed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (mLock) {
+                if (mClosed) {
+                    return;
+                }
+                mClosed = true;
+                mFilledBuffers.put(END_OF_STREAM);
+            }
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the output writer", e);
+        }
+        if (mWriteError != null) {
+            throw mWriteError;
+        }
+    }
+
+    /**
+     * Writes to the given writer, if any, from a codec callback. An interrupt is logged and
+     * kept pending rather than thrown, so that the caller still releases its codec buffer.
+     */
+    static void writeOutput(AsyncOutputWriter writer, ByteBuffer data) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(data);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.d(TAG, "Error Dumping File: Exception " + e.toString());
+        }
+    }
+
+    /**
+     * Closes the given writer, if any, and adds its dropped and late writes to the stats.
+     */
+    static void closeOutput(AsyncOutputWriter writer, Stats stats) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.d(TAG, "Error Dumping File: Exception " + e.toString());
+        }
+        stats.addOutputWrites(writer.getDroppedWrites(), writer.getLateWrites());
+    }
+
+    public Policy getPolicy() { return mPolicy; }
+
+    /** Returns the number of writes dropped because no buffer was free. */
+    public long getDroppedWrites() { return mDroppedWrites.get(); }
+
+    /** Returns the number of writes that had to wait for a free buffer. */
+    public long getLateWrites() { return mLateWrites.get(); }
+
+    public long getBytesWritten() { return mBytesWritten.get(); }
+}
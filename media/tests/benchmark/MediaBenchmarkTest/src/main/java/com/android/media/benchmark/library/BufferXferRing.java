@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single producer single consumer ring of buffer infos, with preallocated slots.
+ * One thread offers, and one thread at a time polls; the buffer exchanges serialize the
+ * polling threads through their work counter.
+ */
+final class BufferXferRing {
+    private final IBufferXfer.BufferXferInfo[] mSlots;
+    private final int mMask;
+    // Next slot to take, only written by the polling thread
+    private final AtomicLong mHead = new AtomicLong();
+    // Next slot to fill, only written by the offering thread
+    private final AtomicLong mTail = new AtomicLong();
+    // Most entries seen in the ring, only written by the offering thread
+    private volatile int mMaxDepth;
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two
+     */
+    BufferXferRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1);
+        mSlots = new IBufferXfer.BufferXferInfo[size];
+        mMask = size - 1;
+    }
+
+    int capacity() { return mSlots.length; }
+
+    boolean offer(IBufferXfer.BufferXferInfo info) {
+        long tail = mTail.get();
+        if (tail - mHead.get() == mSlots.length) {
+            return false;
+        }
+        mSlots[(int) tail & mMask] = info;
+        // Publishes the slot to the polling thread
+        mTail.lazySet(tail + 1);
+        int depth = (int) (tail + 1 - mHead.get());
+        if (depth > mMaxDepth) {
+            mMaxDepth = depth;
+        }
+        return true;
+    }
+
+    boolean isEmpty() { return mHead.get() == mTail.get(); }
+
+    int size() { return (int) (mTail.get() - mHead.get()); }
+
+    int getMaxDepth() { return mMaxDepth; }
+
+    IBufferXfer.BufferXferInfo peek() {
+        long head = mHead.get();
+        if (head == mTail.get()) {
+            return null;
+        }
+        return mSlots[(int) head & mMask];
+    }
+
+    IBufferXfer.BufferXferInfo poll() {
+        long head = mHead.get();
+        if (head == mTail.get()) {
+            return null;
+        }
+        int index = (int) head & mMask;
+        IBufferXfer.BufferXferInfo info = mSlots[index];
+        mSlots[index] = null;
+        mHead.lazySet(head + 1);
+        return info;
+    }
+}
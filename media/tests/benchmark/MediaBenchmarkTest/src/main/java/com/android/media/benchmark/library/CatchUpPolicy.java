@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+/**
+ * Renders every frame. Once behind schedule, the frames are released faster than their
+ * timestamps say, by a speed up factor, until the release is back on schedule.
+ */
+public class CatchUpPolicy implements FrameReleasePolicy {
+    private static final double DEFAULT_SPEED_UP = 2.0;
+
+    private final double mSpeedUp;
+    private boolean mStarted;
+    private long mLastDeadlineNs;
+    private long mLastReleaseTimeNs;
+
+    public CatchUpPolicy() { this(DEFAULT_SPEED_UP); }
+
+    /**
+     * @param speedUp How much faster than the timestamps the frames are released while
+     *                behind schedule, more than 1
+     */
+    public CatchUpPolicy(double speedUp) {
+        if (!(speedUp > 1)) {
+            throw new IllegalArgumentException("Invalid speed up " + speedUp);
+        }
+        mSpeedUp = speedUp;
+    }
+
+    @Override
+    public void start(String mime, String codecName) {
+        mStarted = false;
+    }
+
+    @Override
+    public long getReleaseTimeNs(long deadlineNs, long queueTimeNs, long nowNs) {
+        long releaseTimeNs = deadlineNs;
+        if (mStarted) {
+            // Frames that are late keep coming at the faster pace, the ones on schedule wait
+            // for their deadline
+            long pacedNs = mLastReleaseTimeNs
+                    + (long) ((deadlineNs - mLastDeadlineNs) / mSpeedUp);
+            releaseTimeNs = Math.max(deadlineNs, pacedNs);
+        }
+        mStarted = true;
+        mLastDeadlineNs = deadlineNs;
+        // The frame cannot go out before it is taken from the queue
+        mLastReleaseTimeNs = Math.max(releaseTimeNs, nowNs);
+        return releaseTimeNs;
+    }
+}
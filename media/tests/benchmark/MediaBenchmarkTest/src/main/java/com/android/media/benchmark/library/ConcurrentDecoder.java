@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several decoders at the same time on a shared input, the way a device runs several
+ * decode sessions at once, and reports how the throughput scales with the number of
+ * instances.
+ */
+public class ConcurrentDecoder {
+    private static final String TAG = "ConcurrentDecoder";
+    // Columns of the rows written by dumpConcurrency
+    private static final String[] CONCURRENCY_COLUMNS = {
+            "fileName", "componentName", "sync/async", "instances", "instance", "frames",
+            "totalTime", "framesPerSec", "baselineFramesPerSec", "scalingEfficiency"};
+
+    private final int mNumInstances;
+    private final ArrayList<Decoder> mDecoders;
+    private final ArrayList<String> mCodecNames;
+    private Stats mStats;
+
+    /**
+     * Creates the decoder instances.
+     *
+     * @param numInstances Number of decoders run at the same time
+     */
+    public ConcurrentDecoder(int numInstances) {
+        if (numInstances <= 0) {
+            throw new IllegalArgumentException("Invalid number of instances " + numInstances);
+        }
+        mNumInstances = numInstances;
+        mDecoders = new ArrayList<>(numInstances);
+        mCodecNames = new ArrayList<>(numInstances);
+        for (int instance = 0; instance < numInstances; instance++) {
+            mDecoders.add(new Decoder());
+        }
+    }
+
+    public int getNumInstances() { return mNumInstances; }
+
+    public Decoder getDecoder(int instance) { return mDecoders.get(instance); }
+
+    /**
+     * Decodes the given input with every instance at the same time. The instances wait
+     * for each other before creating their codecs, so that they all run concurrently.
+     *
+     * @param samples    Samples to decode, shared by all the instances
+     * @param asyncMode  Will run on async implementation if true
+     * @param format     For creating the decoders if codec name is empty and configuring
+     * @param codecNames Codecs to create, instance i uses codecNames[i % size]
+     * @return DECODE_SUCCESS if every instance decoded successfully, otherwise the error of
+     *         the first instance that failed
+     * @throws IOException if a codec cannot be created.
+     */
+    public int decode(@NonNull final SampleStore samples, final boolean asyncMode,
+            @NonNull final MediaFormat format, @NonNull List<String> codecNames)
+            throws IOException, InterruptedException {
+        mCodecNames.clear();
+        mStats = null;
+        final CountDownLatch startLatch = new CountDownLatch(mNumInstances);
+        ExecutorService executor = Executors.newFixedThreadPool(mNumInstances);
+        ArrayList<Future<Integer>> results = new ArrayList<>(mNumInstances);
+        try {
+            for (int instance = 0; instance < mNumInstances; instance++) {
+                final Decoder decoder = mDecoders.get(instance);
+                final String codecName = codecNames.get(instance % codecNames.size());
+                mCodecNames.add(codecName);
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return decodeInstance(decoder, samples, asyncMode, format, codecName,
+                                startLatch);
+                    }
+                }));
+            }
+            int status = Decoder.DECODE_SUCCESS;
+            for (int instance = 0; instance < mNumInstances; instance++) {
+                int instanceStatus;
+                try {
+                    instanceStatus = results.get(instance).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    Log.e(TAG, "Instance " + instance + " failed: " + e.getCause());
+                    instanceStatus = Decoder.DECODE_DECODER_ERROR;
+                }
+                if (status == Decoder.DECODE_SUCCESS) {
+                    status = instanceStatus;
+                }
+            }
+            return status;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static int decodeInstance(Decoder decoder, SampleStore samples, boolean asyncMode,
+            MediaFormat format, String codecName, CountDownLatch startLatch) throws Exception {
+        HandlerThread callbackThread = null;
+        startLatch.countDown();
+        try {
+            // -1 decodes every sample, setupDecoder(null) would leave the frame limit at 0
+            decoder.setupDecoder(null, false, false, 0, -1);
+            if (asyncMode) {
+                // Each instance gets its own callback thread, as separate sessions would
+                callbackThread = new HandlerThread(TAG + " " + codecName);
+                callbackThread.start();
+                decoder.setCallbackHandler(new Handler(callbackThread.getLooper()));
+            }
+            startLatch.await();
+            return decoder.decode(samples, asyncMode, format, codecName);
+        } finally {
+            decoder.deInitCodec();
+            if (callbackThread != null) {
+                callbackThread.quitSafely();
+            }
+        }
+    }
+
+    /**
+     * Returns the stats of all the instances merged, starting when the first instance
+     * started decoding.
+     */
+    public Stats getStats() {
+        if (mStats == null) {
+            mStats = new Stats();
+            for (Decoder decoder : mDecoders) {
+                mStats.merge(decoder.getStats());
+            }
+        }
+        return mStats;
+    }
+
+    private static double getFramesPerSec(Stats stats) {
+        long totalTimeNs = stats.getTotalTime();
+        return totalTimeNs > 0 ? stats.getOutputCount() * 1e9 / totalTimeNs : 0;
+    }
+
+    /** Returns the frames decoded per second by all the instances together. */
+    public double getAggregateFramesPerSec() { return getFramesPerSec(getStats()); }
+
+    /** Returns the frames decoded per second by one instance. */
+    public double getInstanceFramesPerSec(int instance) {
+        return getFramesPerSec(mDecoders.get(instance).getStats());
+    }
+
+    /**
+     * Returns the aggregate throughput relative to numInstances times the throughput of
+     * a single instance running alone. 1 means perfect scaling.
+     *
+     * @param baselineFramesPerSec Frames per second of a single instance running alone
+     */
+    public double getScalingEfficiency(double baselineFramesPerSec) {
+        if (baselineFramesPerSec <= 0) {
+            return 0;
+        }
+        return getAggregateFramesPerSec() / (mNumInstances * baselineFramesPerSec);
+    }
+
+    /**
+     * Returns the names of the columns written by dumpConcurrency, in order.
+     */
+    public static String[] getColumnNames() { return CONCURRENCY_COLUMNS.clone(); }
+
+    /**
+     * Writes the header of the concurrency report to a reporter
+     *
+     * @param reporter Reporter where the concurrency report is to be written
+     */
+    public static void writeConcurrencyHeader(StatsReporter reporter) throws IOException {
+        reporter.writeHeader(CONCURRENCY_COLUMNS);
+    }
+
+    /**
+     * Writes the statistics of every instance to the given reporter, as separate decodes
+     *
+     * @param inputReference The input media
+     * @param mode           The operating mode: Sync/Async
+     * @param durationUs     Duration of the clip in microseconds
+     * @param reporter       The reporter where the stats data is written
+     */
+    public void dumpStatistics(String inputReference, String mode, long durationUs,
+            StatsReporter reporter) throws IOException {
+        for (int instance = 0; instance < mNumInstances; instance++) {
+            mDecoders.get(instance).dumpStatistics(
+                    inputReference, mCodecNames.get(instance), mode, durationUs, reporter);
+        }
+    }
+
+    /**
+     * Writes one row per instance and a row for all the instances together, with the
+     * throughput and the scaling efficiency versus a single instance.
+     *
+     * @param inputReference       The input media
+     * @param componentName        Name of the codec(s), as written in the report
+     * @param mode                 The operating mode: Sync/Async
+     * @param baselineFramesPerSec Frames per second of a single instance running alone,
+     *                             0 if not known
+     * @param reporter             The reporter where the rows are written
+     */
+    public void dumpConcurrency(String inputReference, String componentName, String mode,
+            double baselineFramesPerSec, StatsReporter reporter) throws IOException {
+        for (int instance = 0; instance < mNumInstances; instance++) {
+            Stats stats = mDecoders.get(instance).getStats();
+            double framesPerSec = getFramesPerSec(stats);
+            writeRow(reporter, inputReference, mCodecNames.get(instance), mode,
+                    String.valueOf(instance), stats, framesPerSec, baselineFramesPerSec,
+                    baselineFramesPerSec > 0 ? framesPerSec / baselineFramesPerSec : 0);
+        }
+        writeRow(reporter, inputReference, componentName, mode, "all", getStats(),
+                getAggregateFramesPerSec(), baselineFramesPerSec,
+                getScalingEfficiency(baselineFramesPerSec));
+    }
+
+    private void writeRow(StatsReporter reporter, String inputReference,
+            String componentName, String mode, String instance, Stats stats,
+            double framesPerSec, double baselineFramesPerSec, double scalingEfficiency)
+            throws IOException {
+        reporter.beginRow();
+        reporter.addField("fileName", inputReference);
+        reporter.addField("componentName", componentName);
+        reporter.addField("sync/async", mode);
+        reporter.addField("instances", mNumInstances);
+        reporter.addField("instance", instance);
+        reporter.addField("frames", stats.getOutputCount());
+        reporter.addField("totalTime", stats.getTotalTime());
+        reporter.addField("framesPerSec", framesPerSec);
+        reporter.addField("baselineFramesPerSec", baselineFramesPerSec);
+        reporter.addField("scalingEfficiency", scalingEfficiency);
+        reporter.endRow();
+    }
+
+    /**
+     * Resets the stats of all the instances
+     */
+    public void resetDecoder() {
+        for (Decoder decoder : mDecoders) {
+            decoder.resetDecoder();
+        }
+        mStats = null;
+    }
+}
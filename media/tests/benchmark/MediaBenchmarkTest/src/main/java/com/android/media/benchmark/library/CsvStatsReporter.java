@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import java.io.IOException;
+
+/**
+ * Appends rows to a CSV file in the format used by the benchmark since the beginning:
+ * fields separated by ", " and one row per line.
+ */
+public class CsvStatsReporter extends TextStatsReporter {
+    private static final String SEPARATOR = ", ";
+    private boolean mFirstField;
+
+    public CsvStatsReporter(String statsFile) throws IOException { super(statsFile); }
+
+    @Override
+    public void writeHeader(String[] columns) throws IOException {
+        for (int idx = 0; idx < columns.length; idx++) {
+            if (idx > 0) {
+                mRow.append(SEPARATOR);
+            }
+            mRow.append(columns[idx]);
+        }
+        mRow.append('\n');
+        writeRow();
+    }
+
+    @Override
+    public void beginRow() {
+        mRow.setLength(0);
+        mFirstField = true;
+    }
+
+    private void startField() {
+        if (!mFirstField) {
+            mRow.append(SEPARATOR);
+        }
+        mFirstField = false;
+    }
+
+    @Override
+    public void addField(String name, long value) {
+        startField();
+        mRow.append(value);
+    }
+
+    @Override
+    public void addField(String name, double value) {
+        startField();
+        mRow.append(value);
+    }
+
+    @Override
+    public void addField(String name, String value) {
+        startField();
+        mRow.append(value);
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        mRow.append('\n');
+        writeRow();
+    }
+}
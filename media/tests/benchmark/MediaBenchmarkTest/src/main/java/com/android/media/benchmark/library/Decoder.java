@@ -21,6 +21,7 @@ import android.view.Surface;
 import android.media.MediaCodec;
 import android.media.MediaCodec.BufferInfo;
 import android.media.MediaFormat;
+import android.os.Handler;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -39,6 +40,8 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
     private static final String TAG = "Decoder";
     private static final boolean DEBUG = false;
     private static final int kQueueDequeueTimeoutUs = 1000;
+    // Number of timestamps kept by Stats when the input is looped for a fixed frame count
+    private static final int kStatsRingCapacity = 16384;
 
     protected final Object mLock = new Object();
     protected MediaCodec mCodec;
@@ -59,9 +62,16 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
     protected int mIndex;
 
     protected ArrayList<ByteBuffer> mInputBuffer;
+    // Reader of the sample store being decoded, null when decoding a list of buffers
+    protected SampleStore.Reader mSampleReader;
     protected FileOutputStream mOutputStream;
+    // Writes the output dump behind the codec callbacks while a decode is running
+    protected volatile AsyncOutputWriter mOutputWriter = null;
+    protected AsyncOutputWriter.Policy mOutputWritePolicy = AsyncOutputWriter.Policy.BLOCK;
     protected FrameReleaseQueue mFrameReleaseQueue = null;
+    protected FrameReleasePolicy mFrameReleasePolicy = null;
     protected IBufferXfer.ISendBuffer mIBufferSend = null;
+    protected Handler mCallbackHandler = null;
 
     /* success for decoder */
     public static final int DECODE_SUCCESS = 0;
@@ -94,6 +104,27 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
         mSignalledError = false;
         mOutputStream = outputStream;
     }
+
+    /**
+     * Sets what happens to the output dump when the writer falls behind the codec.
+     * BLOCK, the default, keeps every frame, DROP keeps the codec from waiting for the
+     * writer. Either way the affected writes are counted in the stats.
+     */
+    public void setOutputWritePolicy(AsyncOutputWriter.Policy policy) {
+        mOutputWritePolicy = policy;
+    }
+
+    /**
+     * Sets when the FrameReleaseQueue releases and drops the frames. By default the schedule
+     * is delayed by the output delay learned for the decoder, see AdaptivePreRollPolicy.
+     */
+    public void setFrameReleasePolicy(@NonNull FrameReleasePolicy policy) {
+        mFrameReleasePolicy = policy;
+        if (mFrameReleaseQueue != null) {
+            mFrameReleaseQueue.setReleasePolicy(policy);
+        }
+    }
+
     public void setupDecoder(Surface surface, boolean render,
             boolean useFrameReleaseQueue, int frameRate) {
         setupDecoder(surface, render, useFrameReleaseQueue, frameRate, -1);
@@ -107,11 +138,27 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
         if (useFrameReleaseQueue) {
             Log.i(TAG, "Using FrameReleaseQueue with frameRate " + frameRate);
             mFrameReleaseQueue = new FrameReleaseQueue(mRender, frameRate);
+            if (mFrameReleasePolicy != null) {
+                mFrameReleaseQueue.setReleasePolicy(mFrameReleasePolicy);
+            }
         }
         mNumInFramesRequired = numInFramesRequired;
+        if (mNumInFramesRequired > 0) {
+            // Looped input can run for millions of frames, keep the stats memory bounded
+            mStats.setRingCapacity(kStatsRingCapacity);
+        }
         Log.i(TAG, "Decoding " + mNumInFramesRequired + " frames");
     }
 
+    /**
+     * Sets the handler on which the async mode callbacks are run. By default they run on
+     * the looper of the thread that created the codec, or on the main looper, which would
+     * serialize the callbacks of concurrently running decoders.
+     *
+     * @param handler Handler for the codec callbacks, null for the default
+     */
+    public void setCallbackHandler(Handler handler) { mCallbackHandler = handler; }
+
     private MediaCodec createCodec(String codecName, MediaFormat format) throws IOException {
         mMime = format.getString(MediaFormat.KEY_MIME);
         try {
@@ -157,7 +204,7 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
                 int outputBufferId, @NonNull MediaCodec.BufferInfo bufferInfo) {
             mStats.addOutputTime();
             onOutputAvailable(mediaCodec, outputBufferId, bufferInfo);
-            if (mSawOutputEOS) {
+            if (mSawOutputEOS || mSignalledError) {
                 synchronized (mLock) { mLock.notify(); }
             }
         }
@@ -176,7 +223,7 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
             e.printStackTrace();
             synchronized (mLock) { mLock.notify(); }
         }
-    });
+    }, mCallbackHandler);
 
 
     }
@@ -198,18 +245,63 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
             @NonNull List<BufferInfo> inputBufferInfo, final boolean asyncMode,
             @NonNull MediaFormat format, String codecName)
             throws IOException, InterruptedException {
+        // Each decoder copies through its own views of the buffers, so that the same
+        // buffers can be decoded by several decoders at once.
         mInputBuffer = new ArrayList<>(inputBuffer.size());
-        mInputBuffer.addAll(inputBuffer);
+        for (ByteBuffer buffer : inputBuffer) {
+            mInputBuffer.add(buffer.duplicate());
+        }
         mInputBufferInfo = new ArrayList<>(inputBufferInfo.size());
         mInputBufferInfo.addAll(inputBufferInfo);
+        mSampleReader = null;
+        return decode(asyncMode, format, codecName);
+    }
+
+    /**
+     * Decodes the samples of a sample store. The sample data is copied straight from the
+     * store into the codec buffers, so one store can be shared by several decoders.
+     *
+     * @param samples   Samples to decode, the last one must carry the end of stream flag
+     * @param asyncMode Will run on async implementation if true
+     * @param format    For creating the decoder if codec name is empty and configuring it
+     * @param codecName Will create the decoder with codecName
+     * @return DECODE_SUCCESS if decode was successful, DECODE_DECODER_ERROR for fail,
+     *         DECODE_CREATE_ERROR for decoder not created
+     * @throws IOException if the codec cannot be created.
+     */
+    public int decode(@NonNull SampleStore samples, final boolean asyncMode,
+            @NonNull MediaFormat format, String codecName)
+            throws IOException, InterruptedException {
+        mInputBuffer = new ArrayList<>();
+        mInputBufferInfo = new ArrayList<>(samples.getBufferInfos());
+        mSampleReader = samples.newReader();
+        return decode(asyncMode, format, codecName);
+    }
+
+    private int decode(final boolean asyncMode, @NonNull MediaFormat format, String codecName)
+            throws IOException, InterruptedException {
+        if (mOutputStream != null) {
+            mOutputWriter = new AsyncOutputWriter(mOutputStream.getChannel(), mOutputWritePolicy);
+        }
+        try {
+            return runDecode(asyncMode, format, codecName);
+        } finally {
+            closeOutputWriter();
+        }
+    }
+
+    private int runDecode(final boolean asyncMode, @NonNull MediaFormat format,
+            String codecName) throws IOException, InterruptedException {
         mSawInputEOS = false;
         mSawOutputEOS = false;
         mNumOutputFrame = 0;
         mIndex = 0;
         mNumInFramesProvided = 0;
         if (mNumInFramesRequired < 0) {
-            mNumInFramesRequired = mInputBuffer.size();
+            mNumInFramesRequired = mInputBufferInfo.size();
         }
+        // Size the stats arrays up front so that recording never allocates during decode
+        mStats.reserve(mNumInFramesRequired);
         long sTime = mStats.getCurTime();
         mCodec = createCodec(codecName, format);
         if (mCodec == null) {
@@ -233,6 +325,9 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
         Log.i(TAG, "Codec started async mode ?  " + asyncMode);
         long eTime = mStats.getCurTime();
         mStats.setInitTime(mStats.getTimeDiff(sTime, eTime));
+        if (format.containsKey(MediaFormat.KEY_FRAME_RATE)) {
+            mStats.setFrameRate(format.getNumber(MediaFormat.KEY_FRAME_RATE, 0).doubleValue());
+        }
         mStats.setStartTime();
         if (asyncMode) {
             try {
@@ -286,16 +381,46 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
                     onOutputAvailable(mCodec, outputBufferId, outputBufferInfo);
                 }
             }
+            if (mSignalledError) {
+                return DECODE_DECODER_ERROR;
+            }
         }
         if (mFrameReleaseQueue != null) {
             Log.i(TAG, "Ending FrameReleaseQueue");
             mFrameReleaseQueue.stopFrameRelease();
+            mStats.addFrameReleases(mFrameReleaseQueue.getReleaseStats());
         }
         mInputBuffer.clear();
         mInputBufferInfo.clear();
+        mSampleReader = null;
         return DECODE_SUCCESS;
     }
 
+    /**
+     * Called when the transfer did not take an output buffer, e.g. an end of stream it
+     * could not queue. The receiver would wait for the end of stream forever, so the
+     * decode fails. The output buffer is given back to the codec.
+     */
+    protected void onSendFailed(MediaCodec mediaCodec, int outputBufferId) {
+        Log.e(TAG, "Transfer rejected output buffer " + outputBufferId);
+        mediaCodec.releaseOutputBuffer(outputBufferId, false);
+        mSignalledError = true;
+    }
+
+    /**
+     * Queues the remaining bytes of an output buffer to the output dump, if any. The
+     * position of the buffer is left unchanged.
+     */
+    protected void writeOutput(ByteBuffer outputBuffer) {
+        AsyncOutputWriter.writeOutput(mOutputWriter, outputBuffer);
+    }
+
+    private void closeOutputWriter() {
+        AsyncOutputWriter writer = mOutputWriter;
+        mOutputWriter = null;
+        AsyncOutputWriter.closeOutput(writer, mStats);
+    }
+
     /**
      * Stops the codec and releases codec resources.
      */
@@ -326,6 +451,41 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
                 inputReference, operation, componentName, mode, durationUs, statsFile);
     }
 
+    /**
+     * Writes the statistics to the given reporter
+     *
+     * @param inputReference The operation being performed, in this case decode
+     * @param componentName  Name of the component/codec
+     * @param mode           The operating mode: Sync/Async
+     * @param durationUs     Duration of the clip in microseconds
+     * @param reporter       The reporter where the stats data is written
+     */
+    public void dumpStatistics(String inputReference, String componentName, String mode,
+            long durationUs, StatsReporter reporter) throws IOException {
+        dumpStatistics(inputReference, componentName, mode, durationUs, reporter, null);
+    }
+
+    /**
+     * Writes the statistics and the throughput timeline to the given reporters
+     *
+     * @param inputReference   The operation being performed, in this case decode
+     * @param componentName    Name of the component/codec
+     * @param mode             The operating mode: Sync/Async
+     * @param durationUs       Duration of the clip in microseconds
+     * @param reporter         The reporter where the stats data is written
+     * @param timelineReporter The reporter where the timeline is written, may be null
+     */
+    public void dumpStatistics(String inputReference, String componentName, String mode,
+            long durationUs, StatsReporter reporter, StatsReporter timelineReporter)
+            throws IOException {
+        String operation = "decode";
+        mStats.dumpStatistics(
+                inputReference, operation, componentName, mode, durationUs, reporter);
+        if (timelineReporter != null) {
+            mStats.dumpTimeline(inputReference, operation, componentName, mode, timelineReporter);
+        }
+    }
+
     /**
      * Resets the stats
      */
@@ -338,6 +498,23 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
         return mCodec.getOutputFormat();
     }
 
+    /**
+     * Copies the input sample at the given index to a codec input buffer. Exactly the
+     * bytes [offset, offset + size) described by the buffer info are copied, with a bulk
+     * buffer to buffer transfer, so heap, direct and sliced buffers all work.
+     */
+    protected void copyInput(int index, ByteBuffer inputCodecBuffer) {
+        if (mSampleReader != null) {
+            mSampleReader.copySample(index, inputCodecBuffer);
+        } else {
+            ByteBuffer sample = mInputBuffer.get(index);
+            BufferInfo info = mInputBufferInfo.get(index);
+            sample.limit(info.offset + info.size);
+            sample.position(info.offset);
+            inputCodecBuffer.put(sample);
+        }
+    }
+
     protected void onInputAvailable(int inputBufferId, MediaCodec mediaCodec) {
         if (inputBufferId >= 0) {
             ByteBuffer inputCodecBuffer = mediaCodec.getInputBuffer(inputBufferId);
@@ -352,14 +529,18 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
             }
             bufInfo = mInputBufferInfo.get(mIndex);
             mSawInputEOS = (bufInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
-            inputCodecBuffer.put(mInputBuffer.get(mIndex).array());
+            copyInput(mIndex, inputCodecBuffer);
             mNumInFramesProvided++;
             mIndex = mNumInFramesProvided % (mInputBufferInfo.size() - 1);
             if (mSawInputEOS) {
                 Log.i(TAG, "Saw input EOS");
             }
             mStats.addFrameSize(bufInfo.size);
-            mediaCodec.queueInputBuffer(inputBufferId, bufInfo.offset, bufInfo.size,
+            if (bufInfo.size > 0) {
+                mStats.addInputPresentationTime(bufInfo.presentationTimeUs);
+            }
+            // The sample was copied to the start of the codec buffer
+            mediaCodec.queueInputBuffer(inputBufferId, 0, bufInfo.size,
                     bufInfo.presentationTimeUs, bufInfo.flags);
             if (DEBUG) {
                 Log.d(TAG,
@@ -376,6 +557,9 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
             return;
         }
         mNumOutputFrame++;
+        if (outputBufferInfo.size > 0) {
+            mStats.addOutputPresentationTime(outputBufferInfo.presentationTimeUs);
+        }
         if (DEBUG) {
             Log.d(TAG,
                     "In OutputBufferAvailable ,"
@@ -383,20 +567,13 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
                             + " timestamp = " + outputBufferInfo.presentationTimeUs
                             + " size = " + outputBufferInfo.size);
         }
-        if (mOutputStream != null) {
-            try {
-                ByteBuffer outputBuffer = mediaCodec.getOutputBuffer(outputBufferId);
-                byte[] bytesOutput = new byte[outputBuffer.remaining()];
-                outputBuffer.get(bytesOutput);
-                mOutputStream.write(bytesOutput);
-            } catch (IOException e) {
-                e.printStackTrace();
-                Log.d(TAG, "Error Dumping File: Exception " + e.toString());
-            }
+        if (mOutputWriter != null) {
+            writeOutput(mediaCodec.getOutputBuffer(outputBufferId));
         }
         if (mFrameReleaseQueue != null) {
             mFrameReleaseQueue.pushFrame(mNumOutputFrame, outputBufferId,
-                                            outputBufferInfo.presentationTimeUs);
+                    outputBufferInfo.presentationTimeUs,
+                    (outputBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0);
         } else if (mIBufferSend != null) {
             IBufferXfer.BufferXferInfo info = new IBufferXfer.BufferXferInfo();
             info.buf = mediaCodec.getOutputBuffer(outputBufferId);
@@ -405,7 +582,9 @@ public class Decoder implements IBufferXfer.IReceiveBuffer {
             info.bytesRead = outputBufferInfo.size;
             info.presentationTimeUs = outputBufferInfo.presentationTimeUs;
             info.flag = outputBufferInfo.flags;
-            mIBufferSend.sendBuffer(this, info);
+            if (!mIBufferSend.sendBuffer(this, info)) {
+                onSendFailed(mediaCodec, outputBufferId);
+            }
         } else {
             mediaCodec.releaseOutputBuffer(outputBufferId, mRender);
         }
@@ -18,6 +18,7 @@ package com.android.media.benchmark.library;
 
 import android.media.MediaCodec;
 import android.media.MediaCodec.CodecException;
+import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.view.Surface;
 import android.util.Log;
@@ -28,6 +29,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Encoder implements IBufferXfer.IReceiveBuffer {
     // Change in AUDIO_ENCODE_DEFAULT_MAX_INPUT_SIZE should also be taken to
@@ -36,6 +41,8 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
     private static final String TAG = "Encoder";
     private static final boolean DEBUG = false;
     private static final int kQueueDequeueTimeoutUs = 1000;
+    // Size of the window of the input file that is mapped at a time
+    private static final long kInputMapWindowSize = 256L * 1024 * 1024;
     private final Object mLock = new Object();
     private MediaCodec mCodec = null;
     private String mMime;
@@ -51,15 +58,39 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
 
     private int mMinOutputBuffers = 0;
     private int mNumOutputBuffers = 0;
+    // Encoded frames, without the codec config and empty end of stream buffers
+    private long mNumOutputFrames = 0;
     private boolean mUseSurface = false;
 
-    private boolean mSawInputEOS;
+    // Also written by the pairing thread of the transfer
+    private volatile boolean mSawInputEOS;
     private boolean mSawOutputEOS;
     private boolean mSignalledError;
 
     private FileInputStream mInputStream = null;
+    /*
+     * When set, the input file is memory mapped one window at a time and each
+     * frame is copied from the mapping straight into the codec input buffer.
+     */
+    private boolean mMapInput = false;
+    private MappedByteBuffer mInputMap = null;
+    private long mInputMapOffset;
     private FileOutputStream mOutputStream = null;
+    // Writes the output dump behind the codec callbacks while an encode is running
+    private volatile AsyncOutputWriter mOutputWriter = null;
+    private AsyncOutputWriter.Policy mOutputWritePolicy = AsyncOutputWriter.Policy.BLOCK;
     private IBufferXfer.ISendBuffer mIBufferSend = null;
+    // One info per input buffer, reused each time the buffer is sent
+    private final ArrayList<IBufferXfer.BufferXferInfo> mXferInfos = new ArrayList<>();
+    // Input buffers the transfer gave back unfilled, sent again once it has room
+    private final ConcurrentLinkedQueue<IBufferXfer.BufferXferInfo> mHeldInputs =
+            new ConcurrentLinkedQueue<>();
+    // Serializes the sends, the transfer takes the buffers of one sender at a time
+    private final Object mSendLock = new Object();
+    // Set while the held inputs are being sent, under mSendLock
+    private boolean mSendingHeldInputs = false;
+    // Whether the codec takes several access units per input buffer
+    private boolean mMultipleFrames = false;
     /* success for encoder */
     public static final int ENCODE_SUCCESS = 0;
     /* some error happened during encoding */
@@ -81,10 +112,75 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
                 + " PresentationUs " + info.presentationTimeUs
                 + " flags: " + info.flag);
         }
+        if (mSawInputEOS) {
+            // Input buffers handed back unused once the transfer is reset
+            return true;
+        }
+        if (info.dropped) {
+            // Nothing to queue, the codec keeps waiting for data in this buffer
+            mHeldInputs.add(info);
+            return true;
+        }
+        queueInput(info);
+        if (!mHeldInputs.isEmpty()) {
+            // The transfer took this buffer from its ring, which has room for a held one.
+            // No input callback may come for them, the codec may have no other buffer.
+            sendInput(null);
+        }
+        return true;
+    }
+
+    private void queueInput(IBufferXfer.BufferXferInfo info) {
+        mSawInputEOS = (info.flag & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
         MediaCodec codec = (MediaCodec)info.obj;
+        if (info.accessUnits != null && !info.accessUnits.isEmpty()) {
+            for (MediaCodec.BufferInfo unit : info.accessUnits) {
+                if (unit.size > 0) {
+                    mStats.addInputPresentationTime(unit.presentationTimeUs);
+                }
+            }
+            if (mMultipleFrames) {
+                codec.queueInputBuffers(info.idx, info.accessUnits);
+                return;
+            }
+            // Otherwise queued as one access unit, fine for the PCM input of an
+            // audio encoder as the access units are contiguous in the buffer
+        } else if (info.bytesRead > 0) {
+            mStats.addInputPresentationTime(info.presentationTimeUs);
+        }
         codec.queueInputBuffer(info.idx, 0, info.bytesRead,
             info.presentationTimeUs, info.flag);
-        return true;
+    }
+
+    /*
+     * Sends the held inputs, then the given one if not null. Called from the codec
+     * callbacks and from the pairing thread of the transfer. An input the transfer does
+     * not take is kept held for the next try.
+     */
+    private void sendInput(IBufferXfer.BufferXferInfo info) {
+        synchronized (mSendLock) {
+            // A send may call back into receiveBuffer, which must not send the held
+            // inputs again
+            if (!mSendingHeldInputs) {
+                mSendingHeldInputs = true;
+                try {
+                    for (int held = mHeldInputs.size(); held > 0; held--) {
+                        IBufferXfer.BufferXferInfo heldInfo = mHeldInputs.poll();
+                        if (heldInfo == null) {
+                            break;
+                        }
+                        if (!mIBufferSend.sendBuffer(this, heldInfo)) {
+                            mHeldInputs.add(heldInfo);
+                        }
+                    }
+                } finally {
+                    mSendingHeldInputs = false;
+                }
+            }
+            if (info != null && !mIBufferSend.sendBuffer(this, info)) {
+                mHeldInputs.add(info);
+            }
+        }
     }
     @Override
     public boolean connect(IBufferXfer.ISendBuffer receiver) {
@@ -93,6 +189,12 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
     }
     public Stats getStats() { return mStats; };
 
+    /**
+     * Returns the number of encoded frames output, not counting the codec config buffers
+     * and an empty end of stream buffer.
+     */
+    public long getNumOutputFrames() { return mNumOutputFrames; }
+
     /**
      * Setup of encoder
      *
@@ -101,8 +203,22 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
      */
     public void setupEncoder(FileOutputStream encoderOutputStream,
                              FileInputStream fileInputStream) {
+        setupEncoder(encoderOutputStream, fileInputStream, false);
+    }
+    /**
+     * Setup of encoder
+     *
+     * @param encoderOutputStream Will dump the encoder output in this stream if not null.
+     * @param fileInputStream     Will read the decoded output from this stream
+     * @param mapInput            Will memory map the input file instead of reading each
+     *                            frame into an intermediate array
+     */
+    public void setupEncoder(FileOutputStream encoderOutputStream,
+                             FileInputStream fileInputStream, boolean mapInput) {
         this.mInputStream = fileInputStream;
         this.mOutputStream = encoderOutputStream;
+        this.mMapInput = mapInput;
+        this.mInputMap = null;
     }
     /**
      * Setup of encoder
@@ -172,6 +288,9 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
                 e.printStackTrace();
                 return ENCODE_CREATE_ERROR;
             }
+            mMultipleFrames = mime.startsWith("audio/")
+                    && mCodec.getCodecInfo().getCapabilitiesForType(mime).isFeatureSupported(
+                            MediaCodecInfo.CodecCapabilities.FEATURE_MultipleFrames);
         }
         return ENCODE_SUCCESS;
     }
@@ -202,8 +321,23 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
     public int encode(String codecName, MediaFormat encodeFormat, String mime, int frameRate,
             int sampleRate, int frameSize, boolean asyncMode)
             throws IOException, InterruptedException {
+        if (mOutputStream != null) {
+            mOutputWriter = new AsyncOutputWriter(mOutputStream.getChannel(), mOutputWritePolicy);
+        }
+        try {
+            return runEncode(codecName, encodeFormat, mime, frameRate, sampleRate, frameSize,
+                    asyncMode);
+        } finally {
+            closeOutputWriter();
+        }
+    }
+
+    private int runEncode(String codecName, MediaFormat encodeFormat, String mime,
+            int frameRate, int sampleRate, int frameSize, boolean asyncMode)
+            throws IOException, InterruptedException {
         mInputBufferSize = (mInputStream != null) ? mInputStream.getChannel().size() : 0;
         mOffset = 0;
+        mInputMap = null;
         mFrameRate = frameRate;
         mSampleRate = sampleRate;
         long sTime = mStats.getCurTime();
@@ -273,6 +407,9 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
         mCodec.start();
         long eTime = mStats.getCurTime();
         mStats.setInitTime(mStats.getTimeDiff(sTime, eTime));
+        if (mMime.startsWith("video/")) {
+            mStats.setFrameRate(mFrameRate);
+        }
         mStats.setStartTime();
         if (asyncMode) {
             try {
@@ -334,19 +471,15 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
             return;
         }
         ByteBuffer outputBuffer = mediaCodec.getOutputBuffer(outputBufferId);
-        if (mOutputStream != null) {
-            try {
-
-                byte[] bytesOutput = new byte[outputBuffer.remaining()];
-                outputBuffer.get(bytesOutput);
-                mOutputStream.write(bytesOutput);
-            } catch (IOException e) {
-                e.printStackTrace();
-                Log.d(TAG, "Error Dumping File: Exception " + e.toString());
-                return;
-            }
-        }
+        // The buffer is released and the EOS seen even if the dump is interrupted
+        AsyncOutputWriter.writeOutput(mOutputWriter, outputBuffer);
         mNumOutputBuffers++;
+        // Codec config buffers carry no input timestamp of their own
+        if (outputBufferInfo.size > 0
+                && (outputBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+            mNumOutputFrames++;
+            mStats.addOutputPresentationTime(outputBufferInfo.presentationTimeUs);
+        }
         if (DEBUG) {
             Log.d(TAG,
                 "In OutputBufferAvailable ,"
@@ -363,6 +496,12 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
         }
     }
 
+    private void closeOutputWriter() {
+        AsyncOutputWriter writer = mOutputWriter;
+        mOutputWriter = null;
+        AsyncOutputWriter.closeOutput(writer, mStats);
+    }
+
     private void onInputAvailable(MediaCodec mediaCodec, int inputBufferId) throws IOException {
         if (mSawInputEOS || inputBufferId < 0 || this.mUseSurface) {
             if (mSawInputEOS) {
@@ -381,11 +520,14 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
             return;
         }
         if (mIBufferSend != null) {
-            IBufferXfer.BufferXferInfo info = new IBufferXfer.BufferXferInfo();
+            while (mXferInfos.size() <= inputBufferId) {
+                mXferInfos.add(new IBufferXfer.BufferXferInfo());
+            }
+            IBufferXfer.BufferXferInfo info = mXferInfos.get(inputBufferId);
             info.buf = inputBuffer;
             info.idx = inputBufferId;
             info.obj = mediaCodec;
-            mIBufferSend.sendBuffer(this, info);
+            sendInput(info);
             return;
         }
         int bufSize = inputBuffer.capacity();
@@ -405,9 +547,13 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
             }
         }
 
-        byte[] inputArray = new byte[bytesToRead];
-        mInputStream.read(inputArray, 0, bytesToRead);
-        inputBuffer.put(inputArray);
+        if (mMapInput) {
+            copyMappedInput(inputBuffer, bytesToRead);
+        } else {
+            byte[] inputArray = new byte[bytesToRead];
+            mInputStream.read(inputArray, 0, bytesToRead);
+            inputBuffer.put(inputArray);
+        }
         int flag = 0;
         if (mNumInputFrame >= mNumFrames - 1 || bytesToRead == 0) {
             Log.i(TAG, "Sending EOS on input last frame");
@@ -420,11 +566,37 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
         } else {
             presentationTimeUs = mNumInputFrame * mFrameSize * 1000000 / mSampleRate;
         }
+        if (bytesToRead > 0) {
+            mStats.addInputPresentationTime(presentationTimeUs);
+        }
         mediaCodec.queueInputBuffer(inputBufferId, 0, bytesToRead, presentationTimeUs, flag);
         mNumInputFrame++;
         mOffset += bytesToRead;
     }
 
+    /*
+     * Copies the next bytesToRead bytes of the input file into the codec buffer from the
+     * mapping. A new window is mapped when the frame is not in the current one, so large
+     * files do not need to be mapped at once.
+     */
+    private void copyMappedInput(ByteBuffer inputBuffer, int bytesToRead) throws IOException {
+        if (bytesToRead == 0) {
+            return;
+        }
+        if (mInputMap == null || mOffset < mInputMapOffset
+                || mOffset + bytesToRead > mInputMapOffset + mInputMap.capacity()) {
+            long size = Math.min(Math.max(kInputMapWindowSize, bytesToRead),
+                    mInputBufferSize - mOffset);
+            mInputMap = mInputStream.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, mOffset, size);
+            mInputMapOffset = mOffset;
+        }
+        int position = (int) (mOffset - mInputMapOffset);
+        mInputMap.limit(position + bytesToRead);
+        mInputMap.position(position);
+        inputBuffer.put(mInputMap);
+    }
+
     /**
      * Stops the codec and releases codec resources.
      */
@@ -455,18 +627,56 @@ public class Encoder implements IBufferXfer.IReceiveBuffer {
                 inputReference, operation, componentName, mode, durationUs, statsFile);
     }
 
+    /**
+     * Writes the statistics to the given reporter
+     *
+     * @param inputReference The operation being performed, in this case encode
+     * @param componentName  Name of the component/codec
+     * @param mode           The operating mode: Sync/Async
+     * @param durationUs     Duration of the clip in microseconds
+     * @param reporter       The reporter where the stats data is written
+     */
+    public void dumpStatistics(String inputReference, String componentName, String mode,
+                               long durationUs, StatsReporter reporter) throws IOException {
+        dumpStatistics(inputReference, componentName, mode, durationUs, reporter, null);
+    }
+
+    /**
+     * Writes the statistics and the throughput timeline to the given reporters
+     *
+     * @param inputReference   The operation being performed, in this case encode
+     * @param componentName    Name of the component/codec
+     * @param mode             The operating mode: Sync/Async
+     * @param durationUs       Duration of the clip in microseconds
+     * @param reporter         The reporter where the stats data is written
+     * @param timelineReporter The reporter where the timeline is written, may be null
+     */
+    public void dumpStatistics(String inputReference, String componentName, String mode,
+                               long durationUs, StatsReporter reporter,
+                               StatsReporter timelineReporter) throws IOException {
+        String operation = "encode";
+        mStats.dumpStatistics(
+                inputReference, operation, componentName, mode, durationUs, reporter);
+        if (timelineReporter != null) {
+            mStats.dumpTimeline(inputReference, operation, componentName, mode, timelineReporter);
+        }
+    }
+
     /**
      * Resets the stats
      */
     public void resetEncoder() {
         mOffset = 0;
         mInputBufferSize = 0;
+        mInputMap = null;
         mNumInputFrame = 0;
+        mNumOutputFrames = 0;
         mMinOutputBuffers = 0;
         mSawInputEOS = false;
         mSawOutputEOS = false;
         mSignalledError = false;
         mUseSurface = false;
+        mHeldInputs.clear();
         mStats.reset();
     }
 }
@@ -90,6 +90,11 @@ public class Extractor {
         return maxSampleSize;
     }
 
+    /**
+     * Returns the size of the current sample, or -1 if there are no more samples
+     */
+    public long getSampleSize() { return mExtractor.getSampleSize(); }
+
     /**
      * Returns the duration of the sample
      */
@@ -101,8 +106,19 @@ public class Extractor {
      *
      * @return Sample size of the extracted sample
      */
-    public int getFrameSample() {
-        int sampleSize = mExtractor.readSampleData(mFrameBuffer, 0);
+    public int getFrameSample() { return getFrameSample(mFrameBuffer, 0); }
+
+    /**
+     * Retrieve the current sample and store it in the given buffer at the given offset
+     * Also, sets the information related to extracted sample and store it in buffer info
+     *
+     * @param buffer Buffer where the sample is stored, must have room for getSampleSize()
+     *               bytes after offset
+     * @param offset Offset in the buffer where the sample is stored
+     * @return Sample size of the extracted sample
+     */
+    public int getFrameSample(ByteBuffer buffer, int offset) {
+        int sampleSize = mExtractor.readSampleData(buffer, offset);
         if (sampleSize < 0) {
             mBufferInfo.flags = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
             mBufferInfo.size = 0;
@@ -190,4 +206,33 @@ public class Extractor {
         String operation = "extract";
         mStats.dumpStatistics(inputReference, operation, mimeType, "", mDurationUs, statsFile);
     }
+
+    /**
+     * Write the benchmark logs for the given input file to a reporter
+     *
+     * @param inputReference Name of the input file
+     * @param mimeType       Mime type of the muxed file
+     * @param reporter       The reporter where the stats data is written
+     */
+    public void dumpStatistics(String inputReference, String mimeType, StatsReporter reporter)
+            throws IOException {
+        dumpStatistics(inputReference, mimeType, reporter, null);
+    }
+
+    /**
+     * Write the benchmark logs and the throughput timeline for the given input file
+     *
+     * @param inputReference   Name of the input file
+     * @param mimeType         Mime type of the muxed file
+     * @param reporter         The reporter where the stats data is written
+     * @param timelineReporter The reporter where the timeline is written, may be null
+     */
+    public void dumpStatistics(String inputReference, String mimeType, StatsReporter reporter,
+            StatsReporter timelineReporter) throws IOException {
+        String operation = "extract";
+        mStats.dumpStatistics(inputReference, operation, mimeType, "", mDurationUs, reporter);
+        if (timelineReporter != null) {
+            mStats.dumpTimeline(inputReference, operation, mimeType, "", timelineReporter);
+        }
+    }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffer exchange that delivers every buffer of one producer to several consumers, e.g. one
+ * decoder feeding encoders at different bitrates. A producer buffer goes back to the
+ * producer once the last consumer is done with it.
+ * <p>
+ * Like IBufferXferImpl, nothing is locked or allocated per buffer: the producer buffers
+ * are kept in a ring of preallocated slots that every consumer reads with its own cursor,
+ * and the empty buffers of each consumer wait in a ring of their own. The slowest consumer
+ * gates the producer, as a slot is only reused once every consumer got its buffer.
+ * <p>
+ * The time each consumer waited for a buffer after the producer sent it, and how many
+ * buffers it was behind the producer, are recorded per consumer.
+ */
+public class FanOutBufferXfer implements IBufferXfer.ISendBuffer {
+    private static final String TAG = "FanOutBufferXfer";
+    // Codecs rarely have more than a few dozen buffers in flight
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final IBufferXfer.IReceiveBuffer mProducer;
+    private final IBufferXfer.IReceiveBuffer[] mConsumers;
+    private final boolean mHandoff;
+    // Producer buffers not yet delivered to every consumer, with the time they were sent
+    private final IBufferXfer.BufferXferInfo[] mSlots;
+    private final long[] mSendTimesNs;
+    private final int mMask;
+    // Oldest slot in use, only written by the thread delivering the buffers
+    private final AtomicLong mHead = new AtomicLong();
+    // Next slot to fill, only written by the producer
+    private final AtomicLong mTail = new AtomicLong();
+    // Empty buffers of each consumer waiting for a producer buffer
+    private final BufferXferRing[] mRequests;
+    // Next producer buffer of each consumer, only used by the thread delivering the buffers
+    private final long[] mCursors;
+    private final LatencyHistogram[] mLagTimes;
+    private final RunningStats[] mLagFrames;
+    private final AtomicInteger mWip = new AtomicInteger();
+    private volatile boolean mReset = false;
+
+    public FanOutBufferXfer(IBufferXfer.IReceiveBuffer producer,
+            List<? extends IBufferXfer.IReceiveBuffer> consumers) {
+        this(producer, consumers, DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * Creates the exchange and connects the producer and the consumers to it.
+     *
+     * @param producer  Sender of the filled buffers
+     * @param consumers Receivers of every filled buffer
+     * @param capacity  Number of producer buffers that can wait for the consumers, and of
+     *                  buffers of each consumer that can wait for the producer, rounded up
+     *                  to a power of two
+     * @param handoff   Lend the producer buffers to the consumers instead of copying them
+     *                  into the consumer buffers. Consumers then share one ByteBuffer and
+     *                  must read it without moving its position, e.g. with absolute gets
+     */
+    public FanOutBufferXfer(IBufferXfer.IReceiveBuffer producer,
+            List<? extends IBufferXfer.IReceiveBuffer> consumers, int capacity,
+            boolean handoff) {
+        if (consumers.isEmpty()) {
+            throw new IllegalArgumentException("No consumer");
+        }
+        int numConsumers = consumers.size();
+        mProducer = producer;
+        mConsumers = consumers.toArray(new IBufferXfer.IReceiveBuffer[numConsumers]);
+        mHandoff = handoff;
+        int size = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1);
+        mSlots = new IBufferXfer.BufferXferInfo[size];
+        mSendTimesNs = new long[size];
+        mMask = size - 1;
+        mRequests = new BufferXferRing[numConsumers];
+        mCursors = new long[numConsumers];
+        mLagTimes = new LatencyHistogram[numConsumers];
+        mLagFrames = new RunningStats[numConsumers];
+        for (int idx = 0; idx < numConsumers; idx++) {
+            mRequests[idx] = new BufferXferRing(capacity);
+            mLagTimes[idx] = new LatencyHistogram();
+            mLagFrames[idx] = new RunningStats();
+        }
+        mProducer.connect(this);
+        for (IBufferXfer.IReceiveBuffer consumer : mConsumers) {
+            consumer.connect(this);
+        }
+    }
+
+    public int getNumConsumers() { return mConsumers.length; }
+
+    private int indexOf(IBufferXfer.IReceiveBuffer consumer) {
+        for (int idx = 0; idx < mConsumers.length; idx++) {
+            if (mConsumers[idx] == consumer) {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Queues a filled buffer of the producer for every consumer, or an empty buffer of a
+     * consumer. Neither the producer nor a consumer may call this concurrently with itself.
+     * A consumer sending a buffer it had on loan returns the loan.
+     */
+    @Override
+    public boolean sendBuffer(IBufferXfer.IReceiveBuffer rIface,
+            IBufferXfer.BufferXferInfo bufferInfo) {
+        if (rIface == mProducer) {
+            if (mReset) {
+                Log.e(TAG, "Buffer sent after reset");
+                return false;
+            }
+            long tail = mTail.get();
+            if (tail - mHead.get() == mSlots.length) {
+                Log.e(TAG, "No free slot for the buffer, capacity " + mSlots.length);
+                return false;
+            }
+            // One reference per consumer and one for the slot, the last one to let go
+            // returns the buffer. The slot reference keeps the buffer from going back to
+            // the producer before its slot is free for it again
+            for (int idx = 0; idx <= mConsumers.length; idx++) {
+                bufferInfo.retain();
+            }
+            int index = (int) tail & mMask;
+            mSlots[index] = bufferInfo;
+            mSendTimesNs[index] = System.nanoTime();
+            mTail.lazySet(tail + 1);
+        } else {
+            int consumer = indexOf(rIface);
+            if (consumer < 0) {
+                Log.e(TAG, "Interfaces does not match");
+                return false;
+            }
+            releaseBuffer(bufferInfo);
+            if (mReset) {
+                Log.e(TAG, "Buffer sent after reset");
+                return false;
+            }
+            if (!mRequests[consumer].offer(bufferInfo)) {
+                Log.e(TAG, "No free slot for the buffer of consumer " + consumer);
+                return false;
+            }
+        }
+        drain();
+        return true;
+    }
+
+    private void drain() {
+        if (mWip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            long tail = mTail.get();
+            long head = tail;
+            for (int consumer = 0; consumer < mConsumers.length; consumer++) {
+                if (mReset) {
+                    for (; mCursors[consumer] < tail; mCursors[consumer]++) {
+                        releaseProducerBuffer(mSlots[(int) mCursors[consumer] & mMask]);
+                    }
+                    IBufferXfer.BufferXferInfo info;
+                    while ((info = mRequests[consumer].poll()) != null) {
+                        mConsumers[consumer].receiveBuffer(info);
+                    }
+                }
+                while (mCursors[consumer] < tail && !mRequests[consumer].isEmpty()) {
+                    deliver(consumer, (int) mCursors[consumer] & mMask,
+                            tail - mCursors[consumer] - 1);
+                    mCursors[consumer]++;
+                }
+                head = Math.min(head, mCursors[consumer]);
+            }
+            for (long slot = mHead.get(); slot < head; slot++) {
+                IBufferXfer.BufferXferInfo info = mSlots[(int) slot & mMask];
+                mSlots[(int) slot & mMask] = null;
+                mHead.lazySet(slot + 1);
+                releaseProducerBuffer(info);
+            }
+            missed = mWip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void deliver(int consumer, int index, long lagFrames) {
+        IBufferXfer.BufferXferInfo pInfo = mSlots[index];
+        IBufferXfer.BufferXferInfo cInfo = mRequests[consumer].poll();
+        mLagTimes[consumer].record(System.nanoTime() - mSendTimesNs[index]);
+        mLagFrames[consumer].add(lagFrames);
+        cInfo.presentationTimeUs = pInfo.presentationTimeUs;
+        cInfo.flag = pInfo.flag;
+        if (mHandoff) {
+            cInfo.borrowed = pInfo;
+            cInfo.buf = pInfo.buf;
+            cInfo.bytesRead = (pInfo.buf != null) ? pInfo.buf.remaining() : 0;
+        } else {
+            int bytesRead = 0;
+            if (cInfo.buf != null && pInfo.buf != null) {
+                if (cInfo.buf.remaining() >= pInfo.buf.remaining()) {
+                    // Leaves the producer buffer as it was for the other consumers
+                    int position = pInfo.buf.position();
+                    bytesRead = pInfo.buf.remaining();
+                    cInfo.buf.put(pInfo.buf);
+                    pInfo.buf.position(position);
+                } else {
+                    Log.e(TAG, "Something is wrong with the sizes P:"
+                            + pInfo.buf.remaining() + " C:" + cInfo.buf.remaining());
+                }
+            }
+            cInfo.bytesRead = bytesRead;
+            releaseProducerBuffer(pInfo);
+        }
+        mConsumers[consumer].receiveBuffer(cInfo);
+    }
+
+    private void releaseProducerBuffer(IBufferXfer.BufferXferInfo info) {
+        if (info.release()) {
+            mProducer.receiveBuffer(info);
+        }
+    }
+
+    /**
+     * Returns the producer buffer lent to a consumer in handoff mode. The producer gets it
+     * back once no consumer holds it anymore. Does nothing if the info holds no buffer on
+     * loan.
+     */
+    public void releaseBuffer(IBufferXfer.BufferXferInfo info) {
+        IBufferXfer.BufferXferInfo borrowed = info.borrowed;
+        if (borrowed == null) {
+            return;
+        }
+        info.borrowed = null;
+        info.buf = null;
+        releaseProducerBuffer(borrowed);
+    }
+
+    /**
+     * Returns the buffers still waiting to their owners. A producer buffer goes back once
+     * the consumers that have it on loan returned it. Buffers sent afterwards are rejected.
+     */
+    public boolean resetAll() {
+        mReset = true;
+        drain();
+        return true;
+    }
+
+    /**
+     * Returns the time between the producer sending a buffer and the given consumer getting
+     * it, in nanoseconds. Must be read once the transfer has stopped.
+     */
+    public LatencyHistogram getLagTimes(int consumer) { return mLagTimes[consumer]; }
+
+    /**
+     * Returns how many buffers sent by the producer were still waiting for the given
+     * consumer each time it got one. Must be read once the transfer has stopped.
+     */
+    public RunningStats getLagFrames(int consumer) { return mLagFrames[consumer]; }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a FrameReleaseQueue releases each frame, and whether it renders or drops it.
+ * <p>
+ * The methods are called on the release thread only, in frame order. A policy may be used
+ * by one queue at a time; start() begins a new stream.
+ */
+public interface FrameReleasePolicy {
+    /** Returned by getReleaseTimeNs for a frame to drop. */
+    long DROP = Long.MIN_VALUE;
+
+    /** Time after its deadline a frame can be queued and still be rendered. */
+    long DEFAULT_THRESHOLD_NS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * Called before the first frame of a stream.
+     *
+     * @param mime      Mime type of the stream, may be null
+     * @param codecName Name of the decoder, may be null
+     */
+    void start(String mime, String codecName);
+
+    /**
+     * Returns the time to release a frame at, in the time base of the queue clock, or DROP.
+     * A time in the past releases the frame at once.
+     *
+     * @param deadlineNs  Time the frame is due for display, following its timestamp
+     * @param queueTimeNs Time the decoder queued the frame
+     * @param nowNs       Current time
+     */
+    long getReleaseTimeNs(long deadlineNs, long queueTimeNs, long nowNs);
+}
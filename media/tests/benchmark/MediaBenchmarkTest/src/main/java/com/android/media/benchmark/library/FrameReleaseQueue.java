@@ -20,189 +20,443 @@ import android.media.MediaCodec;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import java.nio.ByteBuffer;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Releases the decoded frames at the time they are due for display, as a player would.
+ * <p>
+ * Each frame is due at an absolute deadline, in nanoseconds, derived from its presentation
+ * timestamp: the first frame is due when the release starts and every other frame its
+ * timestamp difference later. When the timestamps go back, e.g. when the input is looped,
+ * the next frame is due one frame period after the previous one. Deadlines can be aligned
+ * to the display refresh with setVsyncPeriodNs. A FrameReleasePolicy then decides when
+ * each frame is released, and whether it is dropped instead of rendered. By default the
+ * schedule is delayed by the output delay the decoder shows in its first frames, and later
+ * frames are dropped if queued more than a threshold after their delayed deadline, see
+ * AdaptivePreRollPolicy.
+ * <p>
+ * The time source is pluggable, so that the schedule can be checked with a fake clock. The
+ * frames rendered and dropped, how late they were released and how late the release thread
+ * woke up are kept in a FrameReleaseStats.
+ * <p>
+ * The buffers are handed back to the codec by a release worker thread, in the order they
+ * are released, so that a slow releaseOutputBuffer call does not delay the next deadline.
+ * The frames wait for release in a ring of preallocated primitive arrays, so that neither
+ * queuing nor releasing a frame allocates.
+ */
 public class FrameReleaseQueue {
     private static final String TAG = "FrameReleaseQueue";
-    private final String MIME_AV1 = "video/av01";
-    private final int AV1_SUPERFRAME_DELAY = 6;
-    private final int THRESHOLD_TIME = 5;
+    // Frames that can wait for release before the ring grows, a power of two
+    private static final int FRAME_RING_SIZE = 64;
+    // Buffers the release thread can get ahead of the release worker, a power of two
+    private static final int RELEASE_RING_SIZE = 64;
+    // Longest wait of the release thread for the release worker to free a slot
+    private static final long MAX_PARK_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** Source of time for the release schedule. */
+    public interface Clock {
+        /** Returns the current time in nanoseconds. */
+        long nanoTime();
+        /** Returns once nanoTime() has reached the deadline. */
+        void sleepUntil(long deadlineNs) throws InterruptedException;
+    }
+
+    /** Clock of System.nanoTime, the time base of the codec and display timestamps. */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() { return System.nanoTime(); }
+
+        @Override
+        public void sleepUntil(long deadlineNs) throws InterruptedException {
+            long remainingNs;
+            while ((remainingNs = deadlineNs - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remainingNs);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+    };
+
+    /** Gets told of every frame as it is released. */
+    public interface ReleaseListener {
+        /**
+         * @param frameNumber   Number of the frame, as given to pushFrame
+         * @param deadlineNs    Time the release policy scheduled the frame for
+         * @param releaseTimeNs Time the frame was handed to the release worker
+         * @param rendered      False if the frame was dropped or not meant to be rendered
+         */
+        void onFrameReleased(int frameNumber, long deadlineNs, long releaseTimeNs,
+                boolean rendered);
+    }
 
     private MediaCodec mCodec;
-    private LinkedBlockingQueue<FrameInfo> mFrameInfoQueue;
+    private final Clock mClock;
     private ReleaseThread mReleaseThread;
-    private AtomicBoolean doFrameRelease = new AtomicBoolean(false);
+    private ReleaseWorker mReleaseWorker;
+    // Guards the frame ring and mStopped, and is notified when either changes
+    private final Object mLock = new Object();
+    // Frames waiting for release, oldest at mHead, as parallel arrays
+    private int[] mFrameNumbers = new int[FRAME_RING_SIZE];
+    private int[] mBufferIds = new int[FRAME_RING_SIZE];
+    private long[] mDisplayTimesUs = new long[FRAME_RING_SIZE];
+    private long[] mQueueTimesNs = new long[FRAME_RING_SIZE];
+    private boolean[] mEndOfStreams = new boolean[FRAME_RING_SIZE];
+    private int mHead = 0;
+    private int mCount = 0;
+    private boolean mStopped = false;
     private boolean mReleaseJobStarted = false;
     private boolean mRender = false;
-    private int mWaitTime = 40; // milliseconds per frame
-    private int mWaitTimeCorrection = 0;
-    private int mCorrectionLoopCount;
-    private int firstReleaseTime = -1;
-    private int mAllowedDelayTime = THRESHOLD_TIME;
-    private int mFrameDelay = 0;
-    private final ScheduledExecutorService mScheduler = Executors.newScheduledThreadPool(1);
-
-
-    private static class FrameInfo {
-        private int number;
-        private int bufferId;
-        private int displayTime;
-        public FrameInfo(int frameNumber, int frameBufferId, int frameDisplayTime) {
-            this.number = frameNumber;
-            this.bufferId = frameBufferId;
-            this.displayTime = frameDisplayTime;
-        }
-    }
+    private final long mFramePeriodNs;
+    private volatile long mVsyncPeriodNs = 0;
+    private volatile long mStartTimeNs;
+    private String mMime = null;
+    private String mCodecName = null;
+    private FrameReleasePolicy mPolicy = new AdaptivePreRollPolicy();
+    private volatile ReleaseListener mReleaseListener = null;
+    // Written by the release thread only
+    private final FrameReleaseStats mReleaseStats = new FrameReleaseStats();
 
     private class ReleaseThread extends Thread {
-        private int mLoopCount = 0;
-        private int mNextReleaseTime = 0;
+        // Deadline of the frame with presentation timestamp mAnchorDisplayTimeUs
+        private long mAnchorTimeNs = -1;
+        private long mAnchorDisplayTimeUs;
+        private long mLastDisplayTimeUs;
+        private long mLastDeadlineNs;
+        // Frame being released, taken from the ring
+        private int mFrameNumber;
+        private int mBufferId;
+        private long mDisplayTimeUs;
+        private long mQueueTimeNs;
+        private boolean mEndOfStream;
+        private int mDepth;
+
+        ReleaseThread() {
+            super(TAG);
+        }
 
-        @SuppressWarnings("FutureReturnValueIgnored")
+        @Override
         public void run() {
-            /* Check if the release thread wakes up too late */
-            if (mLoopCount != 0) {
-                int delta = getCurSysTime() - mNextReleaseTime;
-                if (delta >= THRESHOLD_TIME) {
-                    Log.d(TAG, "Release thread wake up late by " + delta);
-                    /* For accidental late wake up, we should relax the timestamp
-                       check for display time */
-                    mAllowedDelayTime = 1 + delta;
-                } else {
-                    mAllowedDelayTime = THRESHOLD_TIME;
-                }
-            }
-            if (doFrameRelease.get() || mFrameInfoQueue.size() > 0) {
-                FrameInfo curFrameInfo = mFrameInfoQueue.peek();
-                if (curFrameInfo == null) {
-                    mNextReleaseTime += mWaitTime;
-                } else {
-                    if (firstReleaseTime == -1 || curFrameInfo.displayTime <= 0) {
-                        // first frame of loop
-                        firstReleaseTime = getCurSysTime();
-                        mNextReleaseTime = firstReleaseTime + mWaitTime;
-                        popAndRelease(true);
-                    } else if (!doFrameRelease.get() && mFrameInfoQueue.size() == 1) {
+            mPolicy.start(mMime, mCodecName);
+            try {
+                while (takeFrame()) {
+                    long deadlineNs = getDeadlineNs(mDisplayTimeUs);
+                    if (mEndOfStream) {
                         // EOS
                         Log.i(TAG, "EOS");
-                        popAndRelease(false);
-                    } else {
-                        mNextReleaseTime += mWaitTime;
-                        int curSysTime = getCurSysTime();
-                        int curMediaTime = curSysTime - firstReleaseTime;
-                        while (curFrameInfo != null && curFrameInfo.displayTime > 0 &&
-                                curFrameInfo.displayTime <= curMediaTime) {
-                            if (!((curMediaTime - curFrameInfo.displayTime) <= mAllowedDelayTime)) {
-                                Log.d(TAG, "Dropping expired frame " + curFrameInfo.number +
-                                    " display time " + curFrameInfo.displayTime +
-                                    " current time " + curMediaTime);
-                                popAndRelease(false);
-                            } else {
-                                popAndRelease(true);
-                            }
-                            curFrameInfo = mFrameInfoQueue.peek();
-                        }
-                        if (curFrameInfo != null && curFrameInfo.displayTime > curMediaTime) {
-                            if ((curFrameInfo.displayTime - curMediaTime) < THRESHOLD_TIME) {
-                                // release the frame now as we are already there
-                                popAndRelease(true);
-                            }
-                        }
+                        release(deadlineNs, false);
+                        continue;
                     }
+                    mReleaseStats.addQueueDepth(mDepth);
+                    long scheduledNs =
+                            mPolicy.getReleaseTimeNs(deadlineNs, mQueueTimeNs, mClock.nanoTime());
+                    boolean render = scheduledNs != FrameReleasePolicy.DROP;
+                    if (!render) {
+                        Log.d(TAG, "Dropping expired frame " + mFrameNumber +
+                                " due " + deadlineNs + " queued " + mQueueTimeNs);
+                        scheduledNs = deadlineNs;
+                    } else if (scheduledNs - mClock.nanoTime() > 0) {
+                        mClock.sleepUntil(scheduledNs);
+                        mReleaseStats.addWakeup(mClock.nanoTime() - scheduledNs);
+                    }
+                    long releaseTimeNs = release(scheduledNs, render);
+                    mReleaseStats.addFrame(releaseTimeNs - scheduledNs, render);
                 }
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Release thread interrupted");
+            }
+        }
 
-                long sleepTime = (long)(mNextReleaseTime - getCurSysTime());
-                mScheduler.schedule(mReleaseThread, sleepTime, TimeUnit.MILLISECONDS);
+        /**
+         * Waits for a frame and takes it from the ring, or returns false once the release is
+         * stopped and every frame was taken.
+         */
+        private boolean takeFrame() throws InterruptedException {
+            synchronized (mLock) {
+                while (mCount == 0 && !mStopped) {
+                    mLock.wait();
+                }
+                if (mCount == 0) {
+                    return false;
+                }
+                mFrameNumber = mFrameNumbers[mHead];
+                mBufferId = mBufferIds[mHead];
+                mDisplayTimeUs = mDisplayTimesUs[mHead];
+                mQueueTimeNs = mQueueTimesNs[mHead];
+                mEndOfStream = mEndOfStreams[mHead];
+                mHead = (mHead + 1) & (mBufferIds.length - 1);
+                mDepth = --mCount;
+                // The last frame left once stopped ends the stream, even if not flagged
+                mEndOfStream |= mStopped && mCount == 0;
+                return true;
+            }
+        }
+
+        private long getDeadlineNs(long displayTimeUs) {
+            if (mAnchorTimeNs < 0) {
+                mAnchorTimeNs = mStartTimeNs;
+                mAnchorDisplayTimeUs = displayTimeUs;
+            } else if (displayTimeUs <= mLastDisplayTimeUs) {
+                // first frame of loop
+                mAnchorTimeNs = mLastDeadlineNs + mFramePeriodNs;
+                mAnchorDisplayTimeUs = displayTimeUs;
+            }
+            long offsetNs = (displayTimeUs - mAnchorDisplayTimeUs) * 1000;
+            long vsyncPeriodNs = mVsyncPeriodNs;
+            if (vsyncPeriodNs > 0) {
+                offsetNs = (offsetNs + vsyncPeriodNs / 2) / vsyncPeriodNs * vsyncPeriodNs;
+            }
+            mLastDisplayTimeUs = displayTimeUs;
+            mLastDeadlineNs = mAnchorTimeNs + offsetNs;
+            return mLastDeadlineNs;
+        }
+
+        private long release(long deadlineNs, boolean render) {
+            mReleaseWorker.queue(mBufferId, render && mRender);
+            long releaseTimeNs = mClock.nanoTime();
+            ReleaseListener listener = mReleaseListener;
+            if (listener != null) {
+                listener.onFrameReleased(mFrameNumber, deadlineNs, releaseTimeNs, render);
+            }
+            return releaseTimeNs;
+        }
+    }
 
-                if (mLoopCount % mCorrectionLoopCount == 0) {
-                    mNextReleaseTime += mWaitTimeCorrection;
+    /**
+     * Single producer single consumer ring of the buffers to hand back to the codec, with
+     * the entries kept in preallocated primitive arrays so that releasing a frame does not
+     * allocate. The release thread queues, the worker releases.
+     */
+    private class ReleaseWorker extends Thread {
+        private final int[] mBufferIds = new int[RELEASE_RING_SIZE];
+        private final boolean[] mRenders = new boolean[RELEASE_RING_SIZE];
+        // Next entry to release, only written by the worker
+        private final AtomicLong mHead = new AtomicLong();
+        // Next entry to fill, only written by the release thread
+        private final AtomicLong mTail = new AtomicLong();
+        private volatile boolean mParked = false;
+        private volatile boolean mStopped = false;
+
+        ReleaseWorker() {
+            super(TAG + " worker");
+        }
+
+        void queue(int bufferId, boolean render) {
+            long tail = mTail.get();
+            while (tail - mHead.get() == RELEASE_RING_SIZE) {
+                // The codec takes the buffers back slower than they are released
+                LockSupport.parkNanos(this, MAX_PARK_NS);
+            }
+            int index = (int) tail & (RELEASE_RING_SIZE - 1);
+            mBufferIds[index] = bufferId;
+            mRenders[index] = render;
+            // Publishes the entry, and orders it before the check of mParked
+            mTail.set(tail + 1);
+            if (mParked) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            long head = mHead.get();
+            while (true) {
+                // Once stopped, nothing more is queued
+                boolean stopped = mStopped;
+                if (head == mTail.get()) {
+                    if (stopped) {
+                        return;
+                    }
+                    mParked = true;
+                    if (head == mTail.get() && !mStopped) {
+                        LockSupport.park(this);
+                    }
+                    mParked = false;
+                    continue;
                 }
-                mLoopCount += 1;
+                int index = (int) head & (RELEASE_RING_SIZE - 1);
+                try {
+                    releaseOutputBuffer(mBufferIds[index], mRenders[index]);
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "Failed to release buffer " + mBufferIds[index] + ": " + e);
+                }
+                mHead.lazySet(++head);
             }
         }
+
+        /** Releases the buffers still queued and stops the worker. */
+        void finish() throws InterruptedException {
+            mStopped = true;
+            LockSupport.unpark(this);
+            join();
+        }
     }
 
     public FrameReleaseQueue(boolean render, int frameRate) {
-        this.mFrameInfoQueue = new LinkedBlockingQueue();
-        this.mReleaseThread = new ReleaseThread();
-        this.doFrameRelease.set(true);
-        this.mRender = render;
-        this.mWaitTime = 1000 / frameRate; // wait time in milliseconds per frame
-        int waitTimeRemainder = 1000 % frameRate;
-        int gcd = gcd(frameRate, waitTimeRemainder);
-        this.mCorrectionLoopCount = frameRate / gcd;
-        this.mWaitTimeCorrection = waitTimeRemainder / gcd;
-        Log.i(TAG, "Constructed FrameReleaseQueue with wait time " + this.mWaitTime + " ms");
+        this(render, frameRate, SYSTEM_CLOCK);
     }
 
-    private static int gcd(int a, int b) {
-        return b == 0 ? a : gcd(b, a % b);
+    /**
+     * @param render    Render the frames that are not dropped
+     * @param frameRate Frame rate of the stream, for the deadline of the first frame after
+     *                  the timestamps went back
+     * @param clock     Source of time for the release schedule
+     */
+    public FrameReleaseQueue(boolean render, int frameRate, @NonNull Clock clock) {
+        this.mReleaseThread = new ReleaseThread();
+        this.mReleaseWorker = new ReleaseWorker();
+        this.mRender = render;
+        this.mClock = clock;
+        this.mFramePeriodNs = TimeUnit.SECONDS.toNanos(1) / Math.max(frameRate, 1);
+        Log.i(TAG, "Constructed FrameReleaseQueue with frame period " + mFramePeriodNs + " ns");
     }
 
     public void setMediaCodec(MediaCodec mediaCodec) {
         this.mCodec = mediaCodec;
+        this.mCodecName = mediaCodec.getName();
     }
 
     public void setMime(String mime) {
-        if (mime.equals(MIME_AV1)) {
-            mFrameDelay = AV1_SUPERFRAME_DELAY;
-        }
+        this.mMime = mime;
     }
 
+    /**
+     * Sets the policy deciding when each frame is released. Must be called before the first
+     * frame is pushed.
+     */
+    public void setReleasePolicy(@NonNull FrameReleasePolicy policy) {
+        mPolicy = policy;
+    }
+
+    public FrameReleasePolicy getReleasePolicy() { return mPolicy; }
+
+    /**
+     * Aligns the frame deadlines to the display refresh, relative to the first deadline.
+     *
+     * @param vsyncPeriodNs Refresh period of the display, 0 to not align
+     */
+    public void setVsyncPeriodNs(long vsyncPeriodNs) {
+        mVsyncPeriodNs = vsyncPeriodNs;
+    }
+
+    public void setReleaseListener(ReleaseListener listener) {
+        mReleaseListener = listener;
+    }
+
+    /**
+     * Returns the counters and distributions of the release. Must be read once the release
+     * is stopped.
+     */
+    public FrameReleaseStats getReleaseStats() { return mReleaseStats; }
+
     public boolean pushFrame(int frameNumber, int frameBufferId, long frameDisplayTime) {
-        int frameDisplayTimeMs = (int)(frameDisplayTime/1000);
-        FrameInfo curFrameInfo = new FrameInfo(frameNumber, frameBufferId, frameDisplayTimeMs);
-        boolean pushSuccess = mFrameInfoQueue.offer(curFrameInfo);
-        if (!pushSuccess) {
-            Log.e(TAG, "Failed to push frame with buffer id " + curFrameInfo.bufferId);
-            return false;
+        return pushFrame(frameNumber, frameBufferId, frameDisplayTime, false);
+    }
+
+    /**
+     * Queues a frame for release at its deadline.
+     *
+     * @param endOfStream The frame carries the end of stream flag, it is released without
+     *                    rendering as soon as it is taken from the queue
+     */
+    public boolean pushFrame(int frameNumber, int frameBufferId, long frameDisplayTime,
+            boolean endOfStream) {
+        long queueTimeNs = mClock.nanoTime();
+        synchronized (mLock) {
+            if (mStopped) {
+                Log.e(TAG, "Failed to push frame with buffer id " + frameBufferId);
+                return false;
+            }
+            if (mCount == mBufferIds.length) {
+                growRing();
+            }
+            int tail = (mHead + mCount) & (mBufferIds.length - 1);
+            mFrameNumbers[tail] = frameNumber;
+            mBufferIds[tail] = frameBufferId;
+            mDisplayTimesUs[tail] = frameDisplayTime;
+            mQueueTimesNs[tail] = queueTimeNs;
+            mEndOfStreams[tail] = endOfStream;
+            mCount++;
+            mLock.notify();
         }
 
-        if (!mReleaseJobStarted && frameNumber >= mFrameDelay) {
-            mScheduler.execute(mReleaseThread);
-            mReleaseJobStarted = true;
-            Log.i(TAG, "Started frame release thread");
+        if (!mReleaseJobStarted) {
+            startRelease();
         }
         return true;
     }
 
-    private int getCurSysTime() {
-        return (int)(System.nanoTime()/1000000);
+    // Only for codecs holding more output buffers than the ring, the arrays then stay larger
+    private void growRing() {
+        int size = mBufferIds.length;
+        Log.i(TAG, "Growing frame ring to " + size * 2);
+        mFrameNumbers = grow(mFrameNumbers, mHead);
+        mBufferIds = grow(mBufferIds, mHead);
+        mDisplayTimesUs = grow(mDisplayTimesUs, mHead);
+        mQueueTimesNs = grow(mQueueTimesNs, mHead);
+        mEndOfStreams = grow(mEndOfStreams, mHead);
+        mHead = 0;
     }
 
-    @SuppressWarnings("FutureReturnValueIgnored")
-    private void popAndRelease(boolean renderThisFrame) {
-        final boolean actualRender = (renderThisFrame && mRender);
-        try {
-            final FrameInfo curFrameInfo = mFrameInfoQueue.take();
+    // Copies a full ring into an array twice as large, oldest entry first
+    private static int[] grow(int[] ring, int head) {
+        int[] grown = new int[ring.length * 2];
+        System.arraycopy(ring, head, grown, 0, ring.length - head);
+        System.arraycopy(ring, 0, grown, ring.length - head, head);
+        return grown;
+    }
 
-            CompletableFuture.runAsync(() -> {
-                try {
-                    mCodec.releaseOutputBuffer(curFrameInfo.bufferId, actualRender);
-                } catch (IllegalStateException e) {
-                    throw(e);
-                }
-            });
+    private static long[] grow(long[] ring, int head) {
+        long[] grown = new long[ring.length * 2];
+        System.arraycopy(ring, head, grown, 0, ring.length - head);
+        System.arraycopy(ring, 0, grown, ring.length - head, head);
+        return grown;
+    }
 
-        } catch (InterruptedException e) {
-            Log.e(TAG, "Threw InterruptedException on take");
-        }
+    private static boolean[] grow(boolean[] ring, int head) {
+        boolean[] grown = new boolean[ring.length * 2];
+        System.arraycopy(ring, head, grown, 0, ring.length - head);
+        System.arraycopy(ring, 0, grown, ring.length - head, head);
+        return grown;
+    }
+
+    private void startRelease() {
+        mStartTimeNs = mClock.nanoTime();
+        mReleaseWorker.start();
+        mReleaseThread.start();
+        mReleaseJobStarted = true;
+        Log.i(TAG, "Started frame release thread");
     }
 
+    /**
+     * Hands a frame back to the codec, rendering it if render is true. Called on the release
+     * worker thread, in the order the frames are released.
+     */
+    protected void releaseOutputBuffer(int bufferId, boolean render) {
+        mCodec.releaseOutputBuffer(bufferId, render);
+    }
+
+    /**
+     * Releases the frames still queued, each at its deadline, and waits until they are all
+     * handed back to the codec.
+     */
     public void stopFrameRelease() {
-        doFrameRelease.set(false);
-        while (mFrameInfoQueue.size() > 0) {
-            try {
-                TimeUnit.SECONDS.sleep(1);
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Threw InterruptedException on sleep");
-            }
+        synchronized (mLock) {
+            mStopped = true;
+            mLock.notify();
+        }
+        if (!mReleaseJobStarted) {
+            // No frame was pushed
+            startRelease();
+        }
+        try {
+            mReleaseThread.join();
+            mReleaseWorker.finish();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Threw InterruptedException on join");
+            Thread.currentThread().interrupt();
         }
     }
 }
-
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+/**
+ * Counters and distributions of a FrameReleaseQueue, showing how smoothly the frames were
+ * played out.
+ * <p>
+ * It is written by the release thread only and must be read once the release is stopped.
+ * Aggregates of several runs are combined with {@link #add(FrameReleaseStats)}.
+ */
+public class FrameReleaseStats {
+    private long mRenderedFrames;
+    private long mDroppedFrames;
+    // Time each rendered frame was released after its deadline
+    private final LatencyHistogram mLateBy = new LatencyHistogram();
+    // Time the release thread woke up after the deadline it waited for
+    private final LatencyHistogram mWakeupLate = new LatencyHistogram();
+    // Frames waiting behind each frame taken for release
+    private final RunningStats mQueueDepth = new RunningStats();
+
+    /**
+     * Records a frame released on schedule.
+     *
+     * @param lateByNs Time the frame was released after its deadline, negative if early
+     * @param rendered False if the frame was dropped by the release policy
+     */
+    public void addFrame(long lateByNs, boolean rendered) {
+        if (rendered) {
+            mRenderedFrames++;
+            mLateBy.record(Math.max(0, lateByNs));
+        } else {
+            mDroppedFrames++;
+        }
+    }
+
+    /** Records how late the release thread woke up for a deadline it waited for. */
+    public void addWakeup(long wakeupLateNs) { mWakeupLate.record(Math.max(0, wakeupLateNs)); }
+
+    /** Records the number of frames waiting when a frame is taken for release. */
+    public void addQueueDepth(int depth) { mQueueDepth.add(depth); }
+
+    public void add(FrameReleaseStats other) {
+        mRenderedFrames += other.mRenderedFrames;
+        mDroppedFrames += other.mDroppedFrames;
+        mLateBy.add(other.mLateBy);
+        mWakeupLate.add(other.mWakeupLate);
+        mQueueDepth.add(other.mQueueDepth);
+    }
+
+    public void reset() {
+        mRenderedFrames = 0;
+        mDroppedFrames = 0;
+        mLateBy.reset();
+        mWakeupLate.reset();
+        mQueueDepth.reset();
+    }
+
+    /** Returns the number of frames released for display at their deadline. */
+    public long getRenderedFrames() { return mRenderedFrames; }
+
+    /** Returns the number of frames dropped by the release policy. */
+    public long getDroppedFrames() { return mDroppedFrames; }
+
+    /** Returns how late each rendered frame was released versus its deadline, in ns. */
+    public LatencyHistogram getLateByHistogram() { return mLateBy; }
+
+    /** Returns how late the release thread woke up for each deadline it waited for, in ns. */
+    public LatencyHistogram getWakeupLateHistogram() { return mWakeupLate; }
+
+    /** Returns the number of frames waiting when each frame was taken for release. */
+    public RunningStats getQueueDepthStats() { return mQueueDepth; }
+}
@@ -17,6 +17,8 @@
 package com.android.media.benchmark.library;
 import android.media.MediaCodec;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 /**
  * interfaces that can be used to implement
  * sending of buffers to external and receive using callbacks
@@ -29,7 +31,34 @@ public class IBufferXfer {
       int flag;
       int bytesRead;
       boolean isComplete = true;
+      // Set when the buffer is given back to its sender unsent, e.g. when
+      // the ring of its sender was full. flag and bytesRead are left as sent.
+      boolean dropped;
       long presentationTimeUs;
+      // Access units in buf when it holds several, e.g. a batch of large
+      // audio frames, with their offsets from the start of buf. Null for a
+      // single access unit.
+      ArrayDeque<MediaCodec.BufferInfo> accessUnits;
+      // Producer buffer lent to a consumer without a copy, null otherwise.
+      // The consumer must not use buf once it has returned the loan.
+      BufferXferInfo borrowed;
+      // Number of consumers holding this buffer on loan
+      volatile int refCount;
+      private static final AtomicIntegerFieldUpdater<BufferXferInfo> REF_COUNT =
+              AtomicIntegerFieldUpdater.newUpdater(BufferXferInfo.class, "refCount");
+
+      public boolean isBorrowed() { return borrowed != null; }
+      void retain() {
+          REF_COUNT.incrementAndGet(this);
+      }
+      // Returns true when the last holder released the buffer
+      boolean release() {
+          int count = REF_COUNT.decrementAndGet(this);
+          if (count < 0) {
+              throw new IllegalStateException("Buffer released more often than retained");
+          }
+          return count == 0;
+      }
   }
 
   public interface IReceiveBuffer {
@@ -48,4 +77,11 @@ public class IBufferXfer {
       boolean sendBuffer(IBufferXfer.IReceiveBuffer returnIface,
                               BufferXferInfo info);
   }
+  // Implemented by a buffer manager that can move several access units in
+  // one buffer, described by info.accessUnits, so that they reach the
+  // receiver in one call instead of one call per access unit.
+  public interface ISendBuffers extends ISendBuffer {
+      boolean sendBuffers(IBufferXfer.IReceiveBuffer returnIface,
+                              BufferXferInfo info);
+  }
 }
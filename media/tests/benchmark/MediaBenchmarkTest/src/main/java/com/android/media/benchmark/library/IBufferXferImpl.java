@@ -18,27 +18,139 @@ package com.android.media.benchmark.library;
 
 /*
  * Class that manages the buffer senders
+ *
+ * The filled buffers of the producer and the empty buffers of the consumer
+ * each go through their own single producer single consumer ring of
+ * preallocated slots, so queueing a buffer takes no lock and allocates
+ * nothing. Each ring is only written by the thread of its sender, which
+ * must not call sendBuffer concurrently with itself. The buffers are paired
+ * by whichever thread brings the work counter up from zero; the others only
+ * bump the counter and return, and the pairing thread loops until the
+ * counter drops back to zero, so buffers queued meanwhile are not missed.
+ *
+ * In handoff mode the data is not copied: the consumer is given the
+ * producer's buffer on loan in its info (see BufferXferInfo.borrowed), and
+ * the producer only gets the buffer back once the consumer returned it,
+ * either by sending its info again for the next buffer or through
+ * releaseBuffer. Consumers that need the data in a buffer of their own,
+ * e.g. a codec input buffer, gain nothing from it.
+ *
+ * When one side sends faster than the other, its buffers pile up in its ring
+ * up to the capacity. Then the BLOCK policy makes the sender wait for a free
+ * slot and the DROP policy hands the buffer straight back to the sender,
+ * marked dropped in its info, e.g. so that a decoder drops the frame instead
+ * of stalling. A producer buffer flagged end of stream is never dropped, as
+ * the consumer would wait for it forever: its sender waits for a free slot,
+ * or the send fails when the pairing thread calls back into it. The depth of
+ * the rings, the time spent waiting and the dropped buffers are counted.
+ * The pairing thread also measures how long one side had buffers queued
+ * for the other and how long it spent pairing and copying, which tells
+ * whether the producer, the consumer or the copy holds up a pipeline.
+ *
+ * For PCM audio, enabled with setSplitBuffers or setBytesPerSecond, a
+ * producer buffer larger than the consumer buffer is split across as many
+ * consumer buffers as needed. Only the last chunk is marked complete and
+ * carries the end of stream flag, and the producer gets its buffer back once
+ * the last chunk was copied. The timestamp of each chunk is interpolated
+ * from its offset in the producer buffer, using the byte rate given with
+ * setBytesPerSecond, or else the rate of the previous producer buffers.
+ * Otherwise, e.g. for video where a chunk would be a partial picture, such a
+ * buffer is not copied and is counted as rejected.
+ *
+ * A producer buffer holding several access units, sent with sendBuffers,
+ * is moved in as few consumer buffers as the access units fit in. Each
+ * consumer buffer gets the access units copied into it listed in its info,
+ * and an access unit larger than a whole consumer buffer is split, or
+ * rejected, as above. A rejected access unit is listed with no data, so that
+ * its flags still reach the consumer.
  */
+import android.media.MediaCodec;
 import com.android.media.benchmark.library.IBufferXfer;
+import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import android.util.Log;
-public class IBufferXferImpl implements IBufferXfer.ISendBuffer {
+public class IBufferXferImpl implements IBufferXfer.ISendBuffers {
 
-  private static class BufferInfo {
-      public IBufferXfer.IReceiveBuffer rIface;
-      public IBufferXfer.BufferXferInfo info;
+  // Codecs rarely have more than a few dozen buffers in flight
+  private static final int DEFAULT_CAPACITY = 64;
+  // Upper bound of a single wait for a free slot, in case a wake up is missed
+  private static final long MAX_PARK_NS = TimeUnit.MILLISECONDS.toNanos(1);
+  // Side with buffers queued for the other side, seen by the pairing thread
+  private static final int QUEUED_NONE = 0;
+  private static final int QUEUED_PRODUCER = 1;
+  private static final int QUEUED_CONSUMER = 2;
+
+  public enum Backpressure {
+      /** Wait for a free slot when the ring of the sender is full. */
+      BLOCK,
+      /** Give the buffer back to the sender when its ring is full. */
+      DROP
   }
+
   private final String TAG = "IBufferXferImpl";
-  private final ArrayDeque<BufferInfo> mProducerQueue = new ArrayDeque<>();
-  private final ArrayDeque<BufferInfo> mConsumerQueue = new ArrayDeque<>();
-  private IBufferXfer.IReceiveBuffer mProducer = null;
-  private IBufferXfer.IReceiveBuffer mConsumer = null;
-  private final Object mLock = new Object();
+  private final BufferXferRing mProducerRing;
+  private final BufferXferRing mConsumerRing;
+  private final IBufferXfer.IReceiveBuffer mProducer;
+  private final IBufferXfer.IReceiveBuffer mConsumer;
+  private final AtomicInteger mWip = new AtomicInteger();
+  private final boolean mHandoff;
+  private volatile boolean mReset = false;
+  private volatile Backpressure mBackpressure = Backpressure.BLOCK;
+  // Threads waiting for a free slot, woken up when buffers are paired
+  private volatile Thread mProducerWaiter;
+  private volatile Thread mConsumerWaiter;
+  private volatile Thread mDrainThread;
+  // Chunking state of the oldest producer buffer, used by the pairing thread
+  private int mChunkOffset = 0;
+  // Access units of the oldest producer buffer already moved
+  private int mBatchIndex = 0;
+  private long mLastPresentationTimeUs = -1;
+  private int mLastSize = 0;
+  private volatile double mBytesPerSecond = 0;
+  private volatile boolean mSplitBuffers = false;
+  private double mEstimatedBytesPerSecond = 0;
+  private final AtomicLong mBlockedSends = new AtomicLong();
+  private final AtomicLong mWaitTimeNs = new AtomicLong();
+  private final AtomicLong mDroppedBuffers = new AtomicLong();
+  private final AtomicLong mStrandedBuffers = new AtomicLong();
+  private final AtomicLong mRejectedBuffers = new AtomicLong();
+  // Only written by the pairing thread
+  private int mQueuedSide = QUEUED_NONE;
+  private long mQueuedSinceNs;
+  private volatile long mProducerQueuedTimeNs;
+  private volatile long mConsumerQueuedTimeNs;
+  private volatile long mTransferTimeNs;
 
   public IBufferXferImpl(IBufferXfer.IReceiveBuffer producer,
       IBufferXfer.IReceiveBuffer consumer) {
+      this(producer, consumer, DEFAULT_CAPACITY);
+  }
+  /**
+   * @param capacity Number of buffers of each side that can wait for a
+   *                 buffer of the other side, rounded up to a power of two
+   */
+  public IBufferXferImpl(IBufferXfer.IReceiveBuffer producer,
+      IBufferXfer.IReceiveBuffer consumer, int capacity) {
+      this(producer, consumer, capacity, false);
+  }
+  /**
+   * @param capacity Number of buffers of each side that can wait for a
+   *                 buffer of the other side, rounded up to a power of two
+   * @param handoff  Lend the producer buffers to the consumer instead of
+   *                 copying them into the consumer buffers
+   */
+  public IBufferXferImpl(IBufferXfer.IReceiveBuffer producer,
+      IBufferXfer.IReceiveBuffer consumer, int capacity, boolean handoff) {
+      mHandoff = handoff;
       mProducer = producer;
       mConsumer = consumer;
+      mProducerRing = new BufferXferRing(capacity);
+      mConsumerRing = new BufferXferRing(capacity);
       // Attach this to be their receiver
       mProducer.connect(this);
       mConsumer.connect(this);
@@ -50,78 +162,393 @@ public class IBufferXferImpl implements IBufferXfer.ISendBuffer {
          Log.e(TAG, "Interfaces does not match");
         return false;
       }
-      boolean status = true;
-      BufferInfo pBuf = null, cBuf = null;
-      synchronized(mLock) {
-          // see which interface this buffer belongs to
-          // producer has a filled buffer and the consumer
-          // buffer needs to be filled.
-          if ( rIface == mProducer ) {
-              if (mConsumerQueue.size() > 0) {
-                  cBuf = mConsumerQueue.remove();
-                  pBuf = new BufferInfo();
-                  pBuf.rIface = rIface;
-                  pBuf.info = bufferInfo;
-              } else {
-                  BufferInfo info = new BufferInfo();
-                  info.rIface = rIface;
-                  info.info = bufferInfo;
-                  mProducerQueue.add(info);
-              }
-          } else if(rIface == mConsumer) {
-              if (mProducerQueue.size() > 0) {
-                  pBuf = mProducerQueue.remove();
-                  cBuf = new BufferInfo();
-                  cBuf.rIface = rIface;
-                  cBuf.info = bufferInfo;
-              } else {
-                  BufferInfo info = new BufferInfo();
-                  info.rIface = rIface;
-                  info.info = bufferInfo;
-                  mConsumerQueue.add(info);
+      if (rIface == mConsumer) {
+          // Sending a borrowed buffer back asks for the next one
+          releaseBuffer(bufferInfo);
+      }
+      if (mReset) {
+          Log.e(TAG, "Buffer sent after reset");
+          return false;
+      }
+      // see which interface this buffer belongs to
+      // producer has a filled buffer and the consumer
+      // buffer needs to be filled.
+      boolean isProducer = (rIface == mProducer);
+      BufferXferRing ring = isProducer ? mProducerRing : mConsumerRing;
+      bufferInfo.dropped = false;
+      if (!ring.offer(bufferInfo)) {
+          boolean endOfStream = isProducer
+                  && (bufferInfo.flag & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+          // Dropping is the only way out when called back from the pairing
+          // loop, which is the one that would free a slot
+          boolean canWait = mDrainThread != Thread.currentThread();
+          if (canWait && (mBackpressure == Backpressure.BLOCK || endOfStream)) {
+              if (!waitForSlot(ring, bufferInfo, isProducer)) {
+                  return false;
               }
+          } else if (endOfStream) {
+              Log.e(TAG, "End of stream sent from the pairing thread with its ring full");
+              return false;
           } else {
-              status = false;
+              mDroppedBuffers.incrementAndGet();
+              bufferInfo.dropped = true;
+              rIface.receiveBuffer(bufferInfo);
+              return true;
           }
       }
-
-      if ( pBuf != null && cBuf != null) {
-          int bytesRead = 0;
-          if (cBuf.info.buf != null && pBuf.info.buf != null) {
-              if (cBuf.info.buf.remaining() >= pBuf.info.buf.remaining()) {
-                  bytesRead = pBuf.info.buf.remaining();
-                  cBuf.info.buf.put(pBuf.info.buf);
-              } else {
-                  Log.e(TAG, "Something is wrong with the sizes P:" +
-                      pBuf.info.buf.remaining() +" C:" + cBuf.info.buf.remaining());
-              }
+      drain();
+      return true;
+  }
+  /**
+   * Sends a buffer holding the access units listed in info.accessUnits.
+   * Only the producer sends such buffers; the consumer gets back the access
+   * units copied into its buffer in the accessUnits of its info.
+   */
+  @Override
+  public boolean sendBuffers(IBufferXfer.IReceiveBuffer rIface,
+                     IBufferXfer.BufferXferInfo bufferInfo) {
+      if (rIface != mProducer || bufferInfo.accessUnits == null) {
+          Log.e(TAG, "Not a batch of the producer");
+          return false;
+      }
+      return sendBuffer(rIface, bufferInfo);
+  }
+  private boolean waitForSlot(BufferXferRing ring, IBufferXfer.BufferXferInfo info,
+                              boolean isProducer) {
+      long startNs = System.nanoTime();
+      if (isProducer) {
+          mProducerWaiter = Thread.currentThread();
+      } else {
+          mConsumerWaiter = Thread.currentThread();
+      }
+      boolean queued;
+      try {
+          while (!(queued = ring.offer(info)) && !mReset) {
+              LockSupport.parkNanos(this, MAX_PARK_NS);
           }
-          cBuf.info.bytesRead = bytesRead;
-          cBuf.info.presentationTimeUs = pBuf.info.presentationTimeUs;
-          cBuf.info.flag = pBuf.info.flag;
-
-          if (pBuf.rIface != null) {
-              pBuf.rIface.receiveBuffer(pBuf.info);
+      } finally {
+          if (isProducer) {
+              mProducerWaiter = null;
+          } else {
+              mConsumerWaiter = null;
           }
-          if (cBuf.rIface != null) {
-              cBuf.rIface.receiveBuffer(cBuf.info);
+      }
+      mBlockedSends.incrementAndGet();
+      mWaitTimeNs.addAndGet(System.nanoTime() - startNs);
+      if (!queued) {
+          Log.e(TAG, "Buffer sent after reset");
+      }
+      return queued;
+  }
+  private void wakeWaiters() {
+      Thread waiter = mProducerWaiter;
+      if (waiter != null) {
+          LockSupport.unpark(waiter);
+      }
+      waiter = mConsumerWaiter;
+      if (waiter != null) {
+          LockSupport.unpark(waiter);
+      }
+  }
+  private void drain() {
+      if (mWip.getAndIncrement() != 0) {
+          return;
+      }
+      int missed = 1;
+      do {
+          mDrainThread = Thread.currentThread();
+          long startNs = System.nanoTime();
+          if (mReset) {
+              mChunkOffset = 0;
+              mBatchIndex = 0;
+              returnAll(mProducerRing, mProducer);
+              returnAll(mConsumerRing, mConsumer);
+          } else if (!mProducerRing.isEmpty() && !mConsumerRing.isEmpty()) {
+              do {
+                  transfer(mConsumerRing.poll());
+              } while (!mProducerRing.isEmpty() && !mConsumerRing.isEmpty());
+              mTransferTimeNs += System.nanoTime() - startNs;
           }
+          updateQueuedSide(System.nanoTime());
+          wakeWaiters();
+          // Cleared before the counter is released, as another thread may
+          // take over the pairing right after
+          mDrainThread = null;
+          missed = mWip.addAndGet(-missed);
+      } while (missed != 0);
+  }
+  private void updateQueuedSide(long nowNs) {
+      int side = !mProducerRing.isEmpty() ? QUEUED_PRODUCER
+              : (!mConsumerRing.isEmpty() ? QUEUED_CONSUMER : QUEUED_NONE);
+      if (side == mQueuedSide) {
+          return;
       }
-      return status;
+      if (mQueuedSide == QUEUED_PRODUCER) {
+          mProducerQueuedTimeNs += nowNs - mQueuedSinceNs;
+      } else if (mQueuedSide == QUEUED_CONSUMER) {
+          mConsumerQueuedTimeNs += nowNs - mQueuedSinceNs;
+      }
+      mQueuedSide = side;
+      mQueuedSinceNs = nowNs;
   }
-  public boolean resetAll() {
-      synchronized(mLock) {
-          while (mProducerQueue.size() > 0) {
-              BufferInfo info = mProducerQueue.remove();
-              info.rIface.receiveBuffer(info.info);
+  private void transfer(IBufferXfer.BufferXferInfo cInfo) {
+      IBufferXfer.BufferXferInfo pInfo = mProducerRing.peek();
+      if (mHandoff) {
+          mProducerRing.poll();
+          pInfo.retain();
+          cInfo.borrowed = pInfo;
+          cInfo.buf = pInfo.buf;
+          cInfo.bytesRead = (pInfo.buf != null) ? pInfo.buf.remaining() : 0;
+          cInfo.presentationTimeUs = pInfo.presentationTimeUs;
+          cInfo.flag = pInfo.flag;
+          cInfo.accessUnits = pInfo.accessUnits;
+          mConsumer.receiveBuffer(cInfo);
+          return;
+      }
+      if (pInfo.accessUnits != null && cInfo.buf != null && pInfo.buf != null) {
+          transferBatch(pInfo, cInfo);
+          return;
+      }
+      if (cInfo.accessUnits != null) {
+          cInfo.accessUnits.clear();
+      }
+      int bytesRead = 0;
+      boolean complete = true;
+      if (cInfo.buf != null && pInfo.buf != null) {
+          if (pInfo.buf.remaining() > cInfo.buf.remaining() && !isSplitting()) {
+              Log.e(TAG, "Something is wrong with the sizes P:" +
+                  pInfo.buf.remaining() + " C:" + cInfo.buf.remaining());
+              mRejectedBuffers.incrementAndGet();
+          } else {
+              // Copies as much as fits, the rest goes to the next consumer buffers
+              bytesRead = Math.min(cInfo.buf.remaining(), pInfo.buf.remaining());
+              int limit = pInfo.buf.limit();
+              pInfo.buf.limit(pInfo.buf.position() + bytesRead);
+              cInfo.buf.put(pInfo.buf);
+              pInfo.buf.limit(limit);
+              complete = !pInfo.buf.hasRemaining();
           }
-          while (mConsumerQueue.size() > 0) {
-              BufferInfo info = mConsumerQueue.remove();
-              info.rIface.receiveBuffer(info.info);
+      }
+      cInfo.bytesRead = bytesRead;
+      cInfo.presentationTimeUs = pInfo.presentationTimeUs + getChunkOffsetUs(mChunkOffset);
+      cInfo.flag = complete ? pInfo.flag : (pInfo.flag & ~MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+      cInfo.isComplete = complete;
+
+      if (complete) {
+          mProducerRing.poll();
+          updateByteRate(pInfo.presentationTimeUs, mChunkOffset + bytesRead);
+          mChunkOffset = 0;
+          mProducer.receiveBuffer(pInfo);
+      } else {
+          mChunkOffset += bytesRead;
+      }
+      mConsumer.receiveBuffer(cInfo);
+  }
+  private void transferBatch(IBufferXfer.BufferXferInfo pInfo,
+                             IBufferXfer.BufferXferInfo cInfo) {
+      if (cInfo.accessUnits == null) {
+          cInfo.accessUnits = new ArrayDeque<>();
+      }
+      ArrayDeque<MediaCodec.BufferInfo> units = cInfo.accessUnits;
+      // The infos of the previous transfer are reused from the front
+      int stale = units.size();
+      int count = 0;
+      int start = cInfo.buf.position();
+      int flags = 0;
+      long presentationTimeUs = 0;
+      boolean complete = true;
+      Iterator<MediaCodec.BufferInfo> iter = pInfo.accessUnits.iterator();
+      for (int idx = 0; idx < mBatchIndex; idx++) {
+          iter.next();
+      }
+      while (iter.hasNext()) {
+          MediaCodec.BufferInfo unit = iter.next();
+          int remaining = unit.size - mChunkOffset;
+          // Whole access units only, unless one is larger than the buffer
+          if (remaining > cInfo.buf.remaining() && count > 0) {
+              complete = false;
+              break;
+          }
+          boolean rejected = remaining > cInfo.buf.remaining() && !isSplitting();
+          if (rejected) {
+              Log.e(TAG, "Access unit of " + remaining + " bytes does not fit in "
+                  + cInfo.buf.remaining());
+              mRejectedBuffers.incrementAndGet();
+          }
+          int length = rejected ? 0 : Math.min(remaining, cInfo.buf.remaining());
+          int offset = cInfo.buf.position();
+          copy(pInfo.buf, unit.offset + mChunkOffset, length, cInfo.buf);
+          boolean unitDone = rejected || (length == remaining);
+          int unitFlags = unitDone
+                  ? unit.flags : (unit.flags & ~MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+          long unitTimeUs = unit.presentationTimeUs + getChunkOffsetUs(mChunkOffset);
+          MediaCodec.BufferInfo info;
+          if (stale > 0) {
+              info = units.pollFirst();
+              stale--;
+          } else {
+              info = new MediaCodec.BufferInfo();
           }
-          mProducer = null;
-          mConsumer = null;
+          info.set(offset, length, unitTimeUs, unitFlags);
+          units.addLast(info);
+          if (count++ == 0) {
+              presentationTimeUs = unitTimeUs;
+          }
+          flags |= unitFlags;
+          if (!unitDone) {
+              mChunkOffset += length;
+              complete = false;
+              break;
+          }
+          updateByteRate(unit.presentationTimeUs, unit.size);
+          mChunkOffset = 0;
+          mBatchIndex++;
+      }
+      while (stale-- > 0) {
+          units.pollFirst();
+      }
+      cInfo.bytesRead = cInfo.buf.position() - start;
+      cInfo.presentationTimeUs = presentationTimeUs;
+      cInfo.flag = flags;
+      cInfo.isComplete = complete;
+
+      if (complete) {
+          mProducerRing.poll();
+          mBatchIndex = 0;
+          mProducer.receiveBuffer(pInfo);
+      }
+      mConsumer.receiveBuffer(cInfo);
+  }
+  // Copies length bytes from offset of src to dst, leaving src as it was
+  private static void copy(ByteBuffer src, int offset, int length, ByteBuffer dst) {
+      int position = src.position();
+      int limit = src.limit();
+      src.limit(offset + length);
+      src.position(offset);
+      dst.put(src);
+      src.limit(limit);
+      src.position(position);
+  }
+  private boolean isSplitting() {
+      return mSplitBuffers || mBytesPerSecond > 0;
+  }
+  private long getChunkOffsetUs(int offset) {
+      double bytesPerSecond = (mBytesPerSecond > 0) ? mBytesPerSecond : mEstimatedBytesPerSecond;
+      if (offset == 0 || bytesPerSecond <= 0) {
+          return 0;
+      }
+      return (long) (offset * 1000000.0 / bytesPerSecond);
+  }
+  private void updateByteRate(long presentationTimeUs, int size) {
+      if (mLastPresentationTimeUs >= 0 && presentationTimeUs > mLastPresentationTimeUs
+              && mLastSize > 0) {
+          mEstimatedBytesPerSecond =
+                  mLastSize * 1000000.0 / (presentationTimeUs - mLastPresentationTimeUs);
+      }
+      mLastPresentationTimeUs = presentationTimeUs;
+      mLastSize = size;
+  }
+  private void returnAll(BufferXferRing ring, IBufferXfer.IReceiveBuffer owner) {
+      IBufferXfer.BufferXferInfo info;
+      while ((info = ring.poll()) != null) {
+          mStrandedBuffers.incrementAndGet();
+          owner.receiveBuffer(info);
       }
+  }
+  /**
+   * Sets what happens to a buffer sent while the ring of its sender is full.
+   * BLOCK, the default, must not be used when the producer and the consumer
+   * send from the same thread, as the waiting thread is the one that would
+   * free a slot. Under DROP, the sender gets its buffer back with dropped set
+   * in the info and must not treat it as filled or consumed; the end of
+   * stream of the producer still waits for a slot.
+   */
+  public void setBackpressure(Backpressure backpressure) {
+      mBackpressure = backpressure;
+  }
+  /**
+   * Sets whether a producer buffer larger than the consumer buffer is split
+   * across several consumer buffers, which only suits PCM audio. Off by
+   * default, such buffers are then rejected.
+   */
+  public void setSplitBuffers(boolean splitBuffers) {
+      mSplitBuffers = splitBuffers;
+  }
+  /**
+   * Sets the byte rate of the producer data, e.g. sample rate * channels *
+   * bytes per sample for PCM audio, used to interpolate the timestamps of
+   * the chunks of a producer buffer. A rate above 0 also turns on splitting.
+   * When not set, the rate is estimated from the sizes and timestamps of
+   * the previous producer buffers.
+   */
+  public void setBytesPerSecond(double bytesPerSecond) {
+      mBytesPerSecond = bytesPerSecond;
+  }
+  /**
+   * Returns the most producer buffers that waited for a consumer buffer at
+   * once.
+   */
+  public int getMaxProducerQueueDepth() { return mProducerRing.getMaxDepth(); }
+  /**
+   * Returns the most consumer buffers that waited for a producer buffer at
+   * once.
+   */
+  public int getMaxConsumerQueueDepth() { return mConsumerRing.getMaxDepth(); }
+  /** Returns the number of sends that had to wait for a free slot. */
+  public long getBlockedSends() { return mBlockedSends.get(); }
+  /** Returns the total time senders waited for a free slot, in nanoseconds. */
+  public long getWaitTimeNs() { return mWaitTimeNs.get(); }
+  /** Returns the number of buffers given back to their sender unsent. */
+  public long getDroppedBuffers() { return mDroppedBuffers.get(); }
+  /**
+   * Returns the number of buffers that were still waiting for the other
+   * side when resetAll was called.
+   */
+  public long getStrandedBuffers() { return mStrandedBuffers.get(); }
+  /**
+   * Returns the number of producer buffers, and of access units of a batch,
+   * that did not fit in a consumer buffer while splitting is off. The
+   * consumer got them with no data.
+   */
+  public long getRejectedBuffers() { return mRejectedBuffers.get(); }
+  /**
+   * Returns the time filled producer buffers were waiting for a consumer
+   * buffer, i.e. the consumer was behind, in nanoseconds. A wait still going
+   * on is only counted once it ends, or at resetAll.
+   */
+  public long getProducerQueuedTimeNs() { return mProducerQueuedTimeNs; }
+  /**
+   * Returns the time consumer buffers were waiting for producer data, i.e.
+   * the producer was behind, in nanoseconds. A wait still going on is only
+   * counted once it ends, or at resetAll.
+   */
+  public long getConsumerQueuedTimeNs() { return mConsumerQueuedTimeNs; }
+  /** Returns the time spent pairing and copying buffers, in nanoseconds. */
+  public long getTransferTimeNs() { return mTransferTimeNs; }
+  /**
+   * Returns the producer buffer lent to a consumer in handoff mode. The
+   * producer gets it back once no consumer holds it anymore. Does nothing if
+   * the info holds no buffer on loan.
+   */
+  public void releaseBuffer(IBufferXfer.BufferXferInfo info) {
+      IBufferXfer.BufferXferInfo borrowed = info.borrowed;
+      if (borrowed == null) {
+          return;
+      }
+      info.borrowed = null;
+      info.buf = null;
+      info.accessUnits = null;
+      if (borrowed.release()) {
+          mProducer.receiveBuffer(borrowed);
+      }
+  }
+  /**
+   * Returns the buffers still waiting to their owners. Buffers sent
+   * afterwards are rejected.
+   */
+  public boolean resetAll() {
+      mReset = true;
+      drain();
   return true;
   }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import java.io.IOException;
+
+/**
+ * Appends rows to a JSON lines file, one JSON object per row. The header is not written
+ * since every field carries its name.
+ */
+public class JsonStatsReporter extends TextStatsReporter {
+    private boolean mFirstField;
+
+    public JsonStatsReporter(String statsFile) throws IOException { super(statsFile); }
+
+    @Override
+    public void writeHeader(String[] columns) {}
+
+    @Override
+    public void beginRow() {
+        mRow.setLength(0);
+        mRow.append('{');
+        mFirstField = true;
+    }
+
+    private void startField(String name) {
+        if (!mFirstField) {
+            mRow.append(',');
+        }
+        mFirstField = false;
+        appendString(name);
+        mRow.append(':');
+    }
+
+    private void appendString(String value) {
+        mRow.append('"');
+        for (int idx = 0; idx < value.length(); idx++) {
+            char c = value.charAt(idx);
+            if (c == '"' || c == '\\') {
+                mRow.append('\\').append(c);
+            } else if (c < 0x20) {
+                mRow.append("\\u00");
+                mRow.append(Character.forDigit(c >> 4, 16));
+                mRow.append(Character.forDigit(c & 0xF, 16));
+            } else {
+                mRow.append(c);
+            }
+        }
+        mRow.append('"');
+    }
+
+    @Override
+    public void addField(String name, long value) {
+        startField(name);
+        mRow.append(value);
+    }
+
+    @Override
+    public void addField(String name, double value) {
+        startField(name);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            mRow.append("null");
+        } else {
+            mRow.append(value);
+        }
+    }
+
+    @Override
+    public void addField(String name, String value) {
+        startField(name);
+        if (value == null) {
+            mRow.append("null");
+        } else {
+            appendString(value);
+        }
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        mRow.append("}\n");
+        writeRow();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import java.util.Arrays;
+
+/**
+ * Log-bucketed histogram of non-negative long values (typically nanoseconds).
+ * <p>
+ * Values are grouped into power-of-two buckets, each split into linear sub-buckets, in
+ * the same way as HdrHistogram. A sub-bucket is 1 / 2^(subBucketBits - 1) of the lowest
+ * value of its bucket wide, so with the default of 7 sub-bucket bits every recorded value
+ * is kept, and reported by {@link #getValueAtPercentile(double)}, with a relative error
+ * below 1/64 (about 1.6%). All storage is allocated up front, so {@link #record(long)}
+ * never allocates.
+ */
+public class LatencyHistogram {
+    private static final int DEFAULT_SUB_BUCKET_BITS = 7;
+    // 2^43 ns is a little over two hours, which is more than any benchmark run.
+    private static final int DEFAULT_MAX_VALUE_BITS = 43;
+
+    private final int mSubBucketBits;
+    private final int mSubBucketHalfCount;
+    private final long mMaxTrackableValue;
+    private final long[] mCounts;
+
+    private long mTotalCount;
+    private long mMinValue;
+    private long mMaxValue;
+    private long mSum;
+
+    public LatencyHistogram() { this(DEFAULT_SUB_BUCKET_BITS, DEFAULT_MAX_VALUE_BITS); }
+
+    /**
+     * Creates a histogram.
+     *
+     * @param subBucketBits Number of bits of precision kept for each value
+     * @param maxValueBits  Values at or above 2^maxValueBits are clamped to the largest bucket
+     */
+    public LatencyHistogram(int subBucketBits, int maxValueBits) {
+        if (subBucketBits < 1 || maxValueBits <= subBucketBits || maxValueBits > 62) {
+            throw new IllegalArgumentException("Invalid histogram range: subBucketBits "
+                    + subBucketBits + " maxValueBits " + maxValueBits);
+        }
+        mSubBucketBits = subBucketBits;
+        mSubBucketHalfCount = 1 << (subBucketBits - 1);
+        mMaxTrackableValue = (1L << maxValueBits) - 1;
+        mCounts = new long[getIndex(mMaxTrackableValue) + 1];
+        reset();
+    }
+
+    private int getIndex(long value) {
+        int msb = 63 - Long.numberOfLeadingZeros(value | ((1L << mSubBucketBits) - 1));
+        int bucket = msb - (mSubBucketBits - 1);
+        int subBucket = (int) (value >>> bucket);
+        return bucket * mSubBucketHalfCount + subBucket;
+    }
+
+    private long getLowestEquivalentValue(int index) {
+        int bucket = Math.max(0, index / mSubBucketHalfCount - 1);
+        long subBucket = index - (long) bucket * mSubBucketHalfCount;
+        return subBucket << bucket;
+    }
+
+    private long getHighestEquivalentValue(int index) {
+        int bucket = Math.max(0, index / mSubBucketHalfCount - 1);
+        long subBucket = index - (long) bucket * mSubBucketHalfCount;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts[getIndex(Math.min(value, mMaxTrackableValue))]++;
+        mTotalCount++;
+        mSum += value;
+        if (value < mMinValue) {
+            mMinValue = value;
+        }
+        if (value > mMaxValue) {
+            mMaxValue = value;
+        }
+    }
+
+    /**
+     * Adds all the values recorded by another histogram with the same range.
+     */
+    public void add(LatencyHistogram other) {
+        if (other.mCounts.length != mCounts.length) {
+            throw new IllegalArgumentException("Histogram ranges differ");
+        }
+        for (int idx = 0; idx < mCounts.length; idx++) {
+            mCounts[idx] += other.mCounts[idx];
+        }
+        mTotalCount += other.mTotalCount;
+        mSum += other.mSum;
+        mMinValue = Math.min(mMinValue, other.mMinValue);
+        mMaxValue = Math.max(mMaxValue, other.mMaxValue);
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mMinValue = Long.MAX_VALUE;
+        mMaxValue = 0;
+        mSum = 0;
+    }
+
+    public long getCount() { return mTotalCount; }
+
+    public long getMin() { return mTotalCount == 0 ? 0 : mMinValue; }
+
+    public long getMax() { return mMaxValue; }
+
+    public long getMean() { return mTotalCount == 0 ? 0 : mSum / mTotalCount; }
+
+    /**
+     * Returns the number of recorded values greater than the given value. Values in the
+     * same bucket as the threshold are not counted.
+     */
+    public long getCountAbove(long value) {
+        long count = 0;
+        for (int idx = mCounts.length - 1; idx >= 0; idx--) {
+            if (getLowestEquivalentValue(idx) <= value) {
+                break;
+            }
+            count += mCounts[idx];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the value below which the given percentage of recorded values fall.
+     *
+     * @param percentile Percentile in the range [0, 100]
+     * @return the value at the percentile, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        double clamped = Math.min(Math.max(percentile, 0.0), 100.0);
+        long countAtPercentile = Math.max(1, (long) Math.ceil(clamped / 100.0 * mTotalCount));
+        long runningCount = 0;
+        for (int idx = 0; idx < mCounts.length; idx++) {
+            runningCount += mCounts[idx];
+            if (runningCount >= countAtPercentile) {
+                long value = getHighestEquivalentValue(idx);
+                return Math.max(Math.min(value, mMaxValue), getMin());
+            }
+        }
+        return mMaxValue;
+    }
+}
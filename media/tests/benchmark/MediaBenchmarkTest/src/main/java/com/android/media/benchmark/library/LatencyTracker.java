@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+/**
+ * Tracks how long each access unit spends inside a codec.
+ * <p>
+ * The time an access unit is queued is stored against its presentation timestamp in a
+ * {@link PresentationTimeMap}. When an output with the same timestamp comes out the
+ * residency time is recorded in a histogram. The number of access units in flight is
+ * sampled on every input and output to describe the pipeline depth over time.
+ * <p>
+ * A tracker must only be used by one thread at a time, but several trackers may share one
+ * map so that inputs and outputs reported on different threads are still matched. The
+ * trackers are then combined with {@link #add(LatencyTracker)}.
+ */
+public class LatencyTracker {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final int DEFAULT_DEPTH_SAMPLES = 4096;
+
+    private final PresentationTimeMap mPresentationTimes;
+    private long mUnmatchedOutputs;
+
+    private final LatencyHistogram mResidencyHistogram;
+    private final RunningStats mDepthStats;
+    // Ring of the most recent (time, depth) samples
+    private final long[] mDepthSampleTimes;
+    private final int[] mDepthSamples;
+    private long mDepthSampleCount;
+
+    public LatencyTracker() { this(DEFAULT_CAPACITY, DEFAULT_DEPTH_SAMPLES); }
+
+    /**
+     * Creates a tracker.
+     *
+     * @param capacity     Expected maximum number of access units in flight
+     * @param depthSamples Number of most recent pipeline depth samples retained
+     */
+    public LatencyTracker(int capacity, int depthSamples) {
+        this(new PresentationTimeMap(capacity), depthSamples);
+    }
+
+    /**
+     * Creates a tracker that matches inputs and outputs through a shared map.
+     *
+     * @param presentationTimes Map of the access units in flight
+     * @param depthSamples      Number of most recent pipeline depth samples retained
+     */
+    public LatencyTracker(PresentationTimeMap presentationTimes, int depthSamples) {
+        mPresentationTimes = presentationTimes;
+        mResidencyHistogram = new LatencyHistogram();
+        mDepthStats = new RunningStats();
+        mDepthSampleTimes = new long[depthSamples];
+        mDepthSamples = new int[depthSamples];
+    }
+
+    /**
+     * Records that an access unit was queued to the codec.
+     *
+     * @param presentationTimeUs Presentation timestamp of the access unit
+     * @param timeNs             Time at which it was queued
+     */
+    public void onInput(long presentationTimeUs, long timeNs) {
+        mPresentationTimes.put(presentationTimeUs, timeNs);
+        addDepthSample(timeNs);
+    }
+
+    /**
+     * Records that an access unit came out of the codec.
+     *
+     * @param presentationTimeUs Presentation timestamp of the output
+     * @param timeNs             Time at which the output was received
+     * @return the time spent in the codec, or -1 if no matching input was found
+     */
+    public long onOutput(long presentationTimeUs, long timeNs) {
+        long inputTimeNs = mPresentationTimes.remove(presentationTimeUs);
+        long residencyNs = -1;
+        if (inputTimeNs != PresentationTimeMap.NOT_FOUND) {
+            residencyNs = timeNs - inputTimeNs;
+            mResidencyHistogram.record(residencyNs);
+        } else {
+            mUnmatchedOutputs++;
+        }
+        addDepthSample(timeNs);
+        return residencyNs;
+    }
+
+    private void addDepthSample(long timeNs) {
+        int depth = mPresentationTimes.size();
+        mDepthStats.add(depth);
+        storeDepthSample(timeNs, depth);
+    }
+
+    private void storeDepthSample(long timeNs, int depth) {
+        int slot = (int) (mDepthSampleCount % mDepthSamples.length);
+        mDepthSampleTimes[slot] = timeNs;
+        mDepthSamples[slot] = depth;
+        mDepthSampleCount++;
+    }
+
+    /**
+     * Adds the residency and pipeline depth samples of another tracker to this one. The
+     * retained depth samples of both are interleaved by time.
+     */
+    public void add(LatencyTracker other) {
+        mUnmatchedOutputs += other.mUnmatchedOutputs;
+        mResidencyHistogram.add(other.mResidencyHistogram);
+        mDepthStats.add(other.mDepthStats);
+        long[] times = new long[getDepthSampleCount()];
+        int[] depths = new int[times.length];
+        getDepthSamples(times, depths);
+        long[] otherTimes = new long[other.getDepthSampleCount()];
+        int[] otherDepths = new int[otherTimes.length];
+        other.getDepthSamples(otherTimes, otherDepths);
+        mDepthSampleCount = 0;
+        int idx = 0;
+        int otherIdx = 0;
+        while (idx < times.length || otherIdx < otherTimes.length) {
+            if (otherIdx == otherTimes.length
+                    || (idx < times.length && times[idx] <= otherTimes[otherIdx])) {
+                storeDepthSample(times[idx], depths[idx]);
+                idx++;
+            } else {
+                storeDepthSample(otherTimes[otherIdx], otherDepths[otherIdx]);
+                otherIdx++;
+            }
+        }
+    }
+
+    public void reset() {
+        mPresentationTimes.clear();
+        mUnmatchedOutputs = 0;
+        mResidencyHistogram.reset();
+        mDepthStats.reset();
+        mDepthSampleCount = 0;
+    }
+
+    /** Returns the number of access units currently inside the codec. */
+    public int getPipelineDepth() { return mPresentationTimes.size(); }
+
+    public LatencyHistogram getResidencyHistogram() { return mResidencyHistogram; }
+
+    public RunningStats getPipelineDepthStats() { return mDepthStats; }
+
+    public long getUnmatchedOutputs() { return mUnmatchedOutputs; }
+
+    /** Returns the number of inputs whose output never came and that were forgotten. */
+    public long getOverflows() { return mPresentationTimes.getEvictions(); }
+
+    /**
+     * Copies the retained pipeline depth samples, oldest first.
+     *
+     * @param times  Receives the sample times, must hold getDepthSampleCount() entries
+     * @param depths Receives the pipeline depths, must hold getDepthSampleCount() entries
+     * @return the number of samples copied
+     */
+    public int getDepthSamples(long[] times, int[] depths) {
+        int retained = getDepthSampleCount();
+        long first = mDepthSampleCount - retained;
+        for (int idx = 0; idx < retained; idx++) {
+            int slot = (int) ((first + idx) % mDepthSamples.length);
+            times[idx] = mDepthSampleTimes[slot];
+            depths[idx] = mDepthSamples[slot];
+        }
+        return retained;
+    }
+
+    public int getDepthSampleCount() {
+        return (int) Math.min(mDepthSampleCount, mDepthSamples.length);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the reported rows in memory, e.g. for aggregating results across runs or for
+ * checking them in tests.
+ */
+public class MemoryStatsReporter implements StatsReporter {
+    private final ArrayList<Map<String, Object>> mRows = new ArrayList<>();
+    private String[] mColumns = new String[0];
+    private LinkedHashMap<String, Object> mCurrentRow;
+
+    @Override
+    public void writeHeader(String[] columns) { mColumns = columns.clone(); }
+
+    @Override
+    public void beginRow() { mCurrentRow = new LinkedHashMap<>(); }
+
+    @Override
+    public void addField(String name, long value) { mCurrentRow.put(name, value); }
+
+    @Override
+    public void addField(String name, double value) { mCurrentRow.put(name, value); }
+
+    @Override
+    public void addField(String name, String value) { mCurrentRow.put(name, value); }
+
+    @Override
+    public void endRow() {
+        mRows.add(mCurrentRow);
+        mCurrentRow = null;
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    public String[] getColumns() { return mColumns.clone(); }
+
+    /**
+     * Returns the rows reported so far, each as a map from field name to value in the
+     * order the fields were added.
+     */
+    public List<Map<String, Object>> getRows() { return mRows; }
+}
@@ -40,6 +40,12 @@ public class MultiAccessUnitDecoder extends Decoder {
     private static final String TAG = "MultiAccessUnitDecoder";
     private static final boolean DEBUG = false;
     private final ArrayDeque<BufferInfo> mInputInfos = new ArrayDeque<>();
+    /*
+     * Buffer infos describing the access units queued in one codec buffer. The input
+     * buffer infos are shared with other decoders and are reused when the input loops,
+     * so they are copied here instead of having their offset changed.
+     */
+    private final ArrayList<BufferInfo> mQueuedInfoPool = new ArrayList<>();
 
     @Override
     public void setCallback(MediaCodec codec) {
@@ -67,7 +73,7 @@ public class MultiAccessUnitDecoder extends Decoder {
                     int outputBufferId, @NonNull MediaCodec.BufferInfo bufferInfo) {
                 mStats.addOutputTime();
                 onOutputAvailable(mediaCodec, outputBufferId, bufferInfo);
-                if (mSawOutputEOS) {
+                if (mSawOutputEOS || mSignalledError) {
                     synchronized (mLock) { mLock.notify(); }
                 }
             }
@@ -81,7 +87,7 @@ public class MultiAccessUnitDecoder extends Decoder {
                     mStats.addOutputTime();
                 }
                 onOutputsAvailable(mediaCodec, outputBufferId, infos);
-                if (mSawOutputEOS) {
+                if (mSawOutputEOS || mSignalledError) {
                     synchronized (mLock) { mLock.notify(); }
                 }
             }
@@ -103,7 +109,7 @@ public class MultiAccessUnitDecoder extends Decoder {
                 e.printStackTrace();
                 synchronized (mLock) { mLock.notify(); }
             }
-        });
+        }, mCallbackHandler);
 
     }
     /**
@@ -127,6 +133,18 @@ public class MultiAccessUnitDecoder extends Decoder {
         return super.decode(inputBuffer, inputBufferInfo, asyncMode, format, codecName);
     }
 
+    // Describes an access unit copied at the given offset of the codec buffer.
+    private int addQueuedInfo(BufferInfo bufInfo, int offset) {
+        int slot = mInputInfos.size();
+        if (slot == mQueuedInfoPool.size()) {
+            mQueuedInfoPool.add(new BufferInfo());
+        }
+        BufferInfo queuedInfo = mQueuedInfoPool.get(slot);
+        queuedInfo.set(offset, bufInfo.size, bufInfo.presentationTimeUs, bufInfo.flags);
+        mInputInfos.add(queuedInfo);
+        return offset + bufInfo.size;
+    }
+
     private void onInputsAvailable(int inputBufferId, MediaCodec mediaCodec) {
         if (inputBufferId >= 0) {
             ByteBuffer inputCodecBuffer = mediaCodec.getInputBuffer(inputBufferId);
@@ -143,9 +161,8 @@ public class MultiAccessUnitDecoder extends Decoder {
                     }
                     break;
                 }
-                inputCodecBuffer.put(mInputBuffer.get(mIndex).array());
-                bufInfo.offset = offset; offset += bufInfo.size;
-                mInputInfos.add(bufInfo);
+                copyInput(mIndex, inputCodecBuffer);
+                offset = addQueuedInfo(bufInfo, offset);
                 mNumInFramesProvided++;
                 mIndex = mNumInFramesProvided % (mInputBufferInfo.size() - 1);
             }
@@ -157,9 +174,8 @@ public class MultiAccessUnitDecoder extends Decoder {
                         Log.e(TAG, "Error in EOS flag for Decoder");
                     }
                     mSawInputEOS = (bufInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
-                    inputCodecBuffer.put(mInputBuffer.get(mIndex).array());
-                    bufInfo.offset = offset; offset += bufInfo.size;
-                    mInputInfos.add(bufInfo);
+                    copyInput(mIndex, inputCodecBuffer);
+                    offset = addQueuedInfo(bufInfo, offset);
                     mNumInFramesProvided++;
                 }
             }
@@ -167,6 +183,11 @@ public class MultiAccessUnitDecoder extends Decoder {
                 Log.d(TAG, " No inputs to queue");
             } else {
                 mStats.addFrameSize(offset);
+                for (BufferInfo info : mInputInfos) {
+                    if (info.size > 0) {
+                        mStats.addInputPresentationTime(info.presentationTimeUs);
+                    }
+                }
                 mediaCodec.queueInputBuffers(inputBufferId, mInputInfos);
             }
         }
@@ -177,10 +198,17 @@ public class MultiAccessUnitDecoder extends Decoder {
         if (mSawOutputEOS || outputBufferId < 0) {
             return;
         }
+        if (mIBufferSend instanceof IBufferXfer.ISendBuffers) {
+            sendOutputs(mc, outputBufferId, infos);
+            return;
+        }
         Iterator<BufferInfo> iter = infos.iterator();
         while (iter.hasNext()) {
             BufferInfo bufferInfo = iter.next();
             mNumOutputFrame++;
+            if (bufferInfo.size > 0) {
+                mStats.addOutputPresentationTime(bufferInfo.presentationTimeUs);
+            }
             if (DEBUG) {
                 Log.d(TAG,
                         "In OutputBufferAvailable ,"
@@ -197,20 +225,17 @@ public class MultiAccessUnitDecoder extends Decoder {
                 info.presentationTimeUs = bufferInfo.presentationTimeUs;
                 info.flag = bufferInfo.flags;
                 info.isComplete = iter.hasNext() ? false : true;
-                mIBufferSend.sendBuffer(this, info);
+                if (!mIBufferSend.sendBuffer(this, info)) {
+                    // The access units already sent are not complete, they do not
+                    // release the buffer
+                    onSendFailed(mc, outputBufferId);
+                    return;
+                }
             }
             mSawOutputEOS |= (bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
         }
-        if (mOutputStream != null) {
-            try {
-                ByteBuffer outputBuffer = mc.getOutputBuffer(outputBufferId);
-                byte[] bytesOutput = new byte[outputBuffer.remaining()];
-                outputBuffer.get(bytesOutput);
-                mOutputStream.write(bytesOutput);
-            } catch (IOException e) {
-                e.printStackTrace();
-                Log.d(TAG, "Error Dumping File: Exception " + e.toString());
-            }
+        if (mOutputWriter != null) {
+            writeOutput(mc.getOutputBuffer(outputBufferId));
         }
         if (mIBufferSend == null) {
             mc.releaseOutputBuffer(outputBufferId, mRender);
@@ -220,4 +245,40 @@ public class MultiAccessUnitDecoder extends Decoder {
         }
         // we don't support frame release queue for large audio frame
     }
+
+    /**
+     * Sends all the access units of an output buffer in one transfer, the
+     * receiver gets the buffer back once every access unit was consumed.
+     */
+    private void sendOutputs(MediaCodec mc, int outputBufferId, ArrayDeque<BufferInfo> infos) {
+        IBufferXfer.BufferXferInfo info = new IBufferXfer.BufferXferInfo();
+        info.buf = mc.getOutputBuffer(outputBufferId);
+        info.idx = outputBufferId;
+        info.obj = mc;
+        info.accessUnits = infos;
+        info.presentationTimeUs = infos.isEmpty() ? 0 : infos.peekFirst().presentationTimeUs;
+        for (BufferInfo bufferInfo : infos) {
+            mNumOutputFrame++;
+            if (bufferInfo.size > 0) {
+                mStats.addOutputPresentationTime(bufferInfo.presentationTimeUs);
+            }
+            info.bytesRead += bufferInfo.size;
+            info.flag |= bufferInfo.flags;
+        }
+        mSawOutputEOS |= (info.flag & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+        if (DEBUG) {
+            Log.d(TAG, "In OutputBufferAvailable , output frames = " + infos.size()
+                    + " timestamp = " + info.presentationTimeUs + " size = " + info.bytesRead);
+        }
+        if (mOutputWriter != null) {
+            writeOutput(mc.getOutputBuffer(outputBufferId));
+        }
+        if (!((IBufferXfer.ISendBuffers) mIBufferSend).sendBuffers(this, info)) {
+            onSendFailed(mc, outputBufferId);
+            return;
+        }
+        if (mSawOutputEOS) {
+            Log.i(TAG, "Large frame - saw output EOS");
+        }
+    }
 }
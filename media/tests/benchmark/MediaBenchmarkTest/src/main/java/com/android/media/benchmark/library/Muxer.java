@@ -111,4 +111,18 @@ public class Muxer {
         String operation = "mux";
         mStats.dumpStatistics(inputReference, operation, muxFormat, "", clipDuration, statsFile);
     }
+
+    /**
+     * Write the benchmark logs for the given input file to a reporter
+     *
+     * @param inputReference Name of the input file
+     * @param muxFormat      Format of the muxed output
+     * @param clipDuration   Duration of the given inputReference file
+     * @param reporter       The reporter where the stats data is written
+     */
+    public void dumpStatistics(String inputReference, String muxFormat, long clipDuration,
+                               StatsReporter reporter) throws IOException {
+        String operation = "mux";
+        mStats.dumpStatistics(inputReference, operation, muxFormat, "", clipDuration, reporter);
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free map from a presentation timestamp to the time its access unit was queued.
+ * <p>
+ * Inputs and outputs of a codec can be reported from different threads, e.g. when the
+ * input is fed from another codec's callback. Entries live in a primitive open-addressing
+ * table that is updated with compare-and-set only, and an entry is never more than
+ * a fixed number of slots away from its home slot, so every operation is bounded.
+ * When no slot is free nearby, the entry queued longest ago is replaced since its output
+ * most likely never came.
+ * <p>
+ * The same timestamp may be queued more than once (e.g. by several codecs sharing one
+ * Stats); each output then takes one of the entries.
+ */
+public class PresentationTimeMap {
+    public static final long NOT_FOUND = Long.MIN_VALUE;
+    // Key states, presentation timestamps never take these values
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long DELETED = Long.MIN_VALUE + 1;
+    private static final long RESERVED = Long.MIN_VALUE + 2;
+    private static final int MAX_PROBES = 32;
+
+    private final AtomicLongArray mKeys;
+    private final AtomicLongArray mValues;
+    private final int mMask;
+    private final int mMaxProbes;
+    private final AtomicInteger mSize = new AtomicInteger();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    /**
+     * Creates a map.
+     *
+     * @param capacity Expected maximum number of access units in flight
+     */
+    public PresentationTimeMap(int capacity) {
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 2;
+        mKeys = new AtomicLongArray(tableSize);
+        mValues = new AtomicLongArray(tableSize);
+        mMask = tableSize - 1;
+        mMaxProbes = Math.min(MAX_PROBES, tableSize);
+        clear();
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Stores the time at which an access unit was queued.
+     */
+    public void put(long presentationTimeUs, long timeNs) {
+        int home = hash(presentationTimeUs) & mMask;
+        while (true) {
+            int oldest = -1;
+            long oldestKey = EMPTY;
+            long oldestValue = Long.MAX_VALUE;
+            for (int probe = 0; probe < mMaxProbes; probe++) {
+                int idx = (home + probe) & mMask;
+                long key = mKeys.get(idx);
+                if (key == EMPTY || key == DELETED) {
+                    if (mKeys.compareAndSet(idx, key, RESERVED)) {
+                        publish(idx, presentationTimeUs, timeNs);
+                        mSize.incrementAndGet();
+                        return;
+                    }
+                } else if (key != RESERVED) {
+                    long value = mValues.get(idx);
+                    if (value < oldestValue) {
+                        oldest = idx;
+                        oldestKey = key;
+                        oldestValue = value;
+                    }
+                }
+            }
+            if (oldest >= 0 && mKeys.compareAndSet(oldest, oldestKey, RESERVED)) {
+                mEvictions.incrementAndGet();
+                publish(oldest, presentationTimeUs, timeNs);
+                return;
+            }
+            // Every slot nearby changed under us, look again.
+        }
+    }
+
+    // The value is written before the key, so a reader that sees the key sees the value.
+    private void publish(int idx, long presentationTimeUs, long timeNs) {
+        mValues.set(idx, timeNs);
+        mKeys.set(idx, presentationTimeUs);
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @return the time at which the access unit was queued, or NOT_FOUND
+     */
+    public long remove(long presentationTimeUs) {
+        int home = hash(presentationTimeUs) & mMask;
+        for (int probe = 0; probe < mMaxProbes; probe++) {
+            int idx = (home + probe) & mMask;
+            long key = mKeys.get(idx);
+            if (key == EMPTY) {
+                break;
+            }
+            if (key == presentationTimeUs) {
+                long value = mValues.get(idx);
+                if (mKeys.compareAndSet(idx, presentationTimeUs, DELETED)) {
+                    mSize.decrementAndGet();
+                    return value;
+                }
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Removes all entries. Must not be called while other threads use the map.
+     */
+    public void clear() {
+        for (int idx = 0; idx <= mMask; idx++) {
+            mKeys.set(idx, EMPTY);
+        }
+        mSize.set(0);
+        mEvictions.set(0);
+    }
+
+    /** Returns the number of access units currently inside the codec. */
+    public int size() { return mSize.get(); }
+
+    /** Returns the number of entries replaced because their output never came. */
+    public long getEvictions() { return mEvictions.get(); }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+/**
+ * Streaming count, sum, min, max and variance of a sequence of long values.
+ * <p>
+ * The variance is computed with Welford's online algorithm, so it stays accurate over
+ * millions of samples without keeping the samples around. Aggregates recorded separately
+ * (e.g. on different threads) are combined with {@link #add(RunningStats)}.
+ */
+public class RunningStats {
+    private long mCount;
+    private long mSum;
+    private long mMin;
+    private long mMax;
+    private double mMean;
+    private double mM2;
+
+    public RunningStats() { reset(); }
+
+    public void add(long value) {
+        mCount++;
+        mSum += value;
+        if (value < mMin) {
+            mMin = value;
+        }
+        if (value > mMax) {
+            mMax = value;
+        }
+        double delta = value - mMean;
+        mMean += delta / mCount;
+        mM2 += delta * (value - mMean);
+    }
+
+    /**
+     * Adds all the values of another aggregate, using the parallel variant of Welford's
+     * algorithm (Chan et al.).
+     */
+    public void add(RunningStats other) {
+        if (other.mCount == 0) {
+            return;
+        }
+        long count = mCount + other.mCount;
+        double delta = other.mMean - mMean;
+        mMean += delta * other.mCount / count;
+        mM2 += other.mM2 + delta * delta * ((double) mCount * other.mCount / count);
+        mCount = count;
+        mSum += other.mSum;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public void reset() {
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = Long.MIN_VALUE;
+        mMean = 0;
+        mM2 = 0;
+    }
+
+    public long getCount() { return mCount; }
+
+    public long getSum() { return mSum; }
+
+    public long getMin() { return mCount == 0 ? 0 : mMin; }
+
+    public long getMax() { return mCount == 0 ? 0 : mMax; }
+
+    public double getMean() { return mMean; }
+
+    /**
+     * Returns the sample variance, or 0 if fewer than two values were added.
+     */
+    public double getVariance() { return mCount > 1 ? mM2 / (mCount - 1) : 0; }
+
+    public double getStdDev() { return Math.sqrt(getVariance()); }
+}
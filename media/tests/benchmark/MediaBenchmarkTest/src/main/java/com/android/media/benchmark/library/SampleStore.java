@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import android.media.MediaCodec;
+import android.media.MediaCodec.BufferInfo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable set of encoded samples, e.g. all the samples of an extracted track.
+ * <p>
+ * The sample data is kept back to back in one read-only direct buffer, and the offset,
+ * size, timestamp and flags of each sample in primitive arrays. A store is shared by any
+ * number of codecs, including concurrent ones, without copying the data: each consumer
+ * gets its own {@link Reader} that copies samples straight into codec input buffers.
+ */
+public final class SampleStore {
+    private final ByteBuffer mData;
+    private final int[] mOffsets;
+    private final int[] mSizes;
+    private final long[] mPresentationTimesUs;
+    private final int[] mFlags;
+
+    private SampleStore(ByteBuffer data, int[] offsets, int[] sizes, long[] presentationTimesUs,
+            int[] flags) {
+        mData = data;
+        mOffsets = offsets;
+        mSizes = sizes;
+        mPresentationTimesUs = presentationTimesUs;
+        mFlags = flags;
+    }
+
+    /**
+     * Reads all the samples of the selected track of an extractor, up to and including the
+     * end of stream, which is stored as an empty sample.
+     */
+    public static SampleStore fromExtractor(Extractor extractor) {
+        return new Builder().addSamples(extractor).build();
+    }
+
+    public int getNumSamples() { return mSizes.length; }
+
+    public int getSize(int index) { return mSizes[index]; }
+
+    public long getPresentationTimeUs(int index) { return mPresentationTimesUs[index]; }
+
+    public int getFlags(int index) { return mFlags[index]; }
+
+    /** Returns the total size of the sample data in bytes. */
+    public int getDataSize() { return mData.capacity(); }
+
+    /**
+     * Fills a buffer info with the description of a sample. The offset is 0, as the sample
+     * is copied to the start of the codec buffer.
+     */
+    public void getBufferInfo(int index, BufferInfo info) {
+        info.set(0, mSizes[index], mPresentationTimesUs[index], mFlags[index]);
+    }
+
+    /**
+     * Returns a new buffer info for each sample, in order.
+     */
+    public List<BufferInfo> getBufferInfos() {
+        ArrayList<BufferInfo> infos = new ArrayList<>(mSizes.length);
+        for (int index = 0; index < mSizes.length; index++) {
+            BufferInfo info = new BufferInfo();
+            getBufferInfo(index, info);
+            infos.add(info);
+        }
+        return infos;
+    }
+
+    /**
+     * Returns a reader for one consumer. Readers must not be shared between threads.
+     */
+    public Reader newReader() { return new Reader(); }
+
+    /**
+     * View of the sample data for a single consumer, so that copies do not allocate and do
+     * not interfere with other consumers.
+     */
+    public final class Reader {
+        private final ByteBuffer mView;
+
+        private Reader() { mView = mData.duplicate(); }
+
+        public SampleStore getStore() { return SampleStore.this; }
+
+        /**
+         * Copies a sample to the position of the destination buffer, advancing it.
+         *
+         * @return the number of bytes copied
+         */
+        public int copySample(int index, ByteBuffer dst) {
+            int offset = mOffsets[index];
+            mView.limit(offset + mSizes[index]);
+            mView.position(offset);
+            dst.put(mView);
+            return mSizes[index];
+        }
+    }
+
+    /**
+     * Collects samples into a store. The data buffer grows by doubling while samples are
+     * added.
+     */
+    public static final class Builder {
+        private static final int INITIAL_DATA_CAPACITY = 1024 * 1024;
+        private static final int INITIAL_NUM_SAMPLES = 1024;
+
+        private ByteBuffer mData = ByteBuffer.allocateDirect(INITIAL_DATA_CAPACITY);
+        private int mDataSize;
+        private int[] mOffsets = new int[INITIAL_NUM_SAMPLES];
+        private int[] mSizes = new int[INITIAL_NUM_SAMPLES];
+        private long[] mPresentationTimesUs = new long[INITIAL_NUM_SAMPLES];
+        private int[] mFlags = new int[INITIAL_NUM_SAMPLES];
+        private int mNumSamples;
+
+        private void ensureDataCapacity(int size) {
+            if (mData.capacity() - mDataSize >= size) {
+                return;
+            }
+            int capacity = mData.capacity();
+            while (capacity - mDataSize < size) {
+                capacity *= 2;
+            }
+            ByteBuffer data = ByteBuffer.allocateDirect(capacity);
+            mData.limit(mDataSize);
+            mData.position(0);
+            data.put(mData);
+            mData = data;
+        }
+
+        private void addIndexEntry(int size, long presentationTimeUs, int flags) {
+            if (mNumSamples == mSizes.length) {
+                int numSamples = mNumSamples * 2;
+                mOffsets = Arrays.copyOf(mOffsets, numSamples);
+                mSizes = Arrays.copyOf(mSizes, numSamples);
+                mPresentationTimesUs = Arrays.copyOf(mPresentationTimesUs, numSamples);
+                mFlags = Arrays.copyOf(mFlags, numSamples);
+            }
+            mOffsets[mNumSamples] = mDataSize;
+            mSizes[mNumSamples] = size;
+            mPresentationTimesUs[mNumSamples] = presentationTimeUs;
+            mFlags[mNumSamples] = flags;
+            mNumSamples++;
+            mDataSize += size;
+        }
+
+        /**
+         * Adds a sample, copying the remaining bytes of data.
+         */
+        public Builder addSample(ByteBuffer data, long presentationTimeUs, int flags) {
+            int size = data.remaining();
+            ensureDataCapacity(size);
+            mData.limit(mDataSize + size);
+            mData.position(mDataSize);
+            mData.put(data.duplicate());
+            addIndexEntry(size, presentationTimeUs, flags);
+            return this;
+        }
+
+        /**
+         * Adds the remaining samples of the selected track of an extractor, up to and
+         * including the end of stream. The extractor writes the samples straight into
+         * the store.
+         */
+        public Builder addSamples(Extractor extractor) {
+            int sampleSize;
+            do {
+                ensureDataCapacity((int) Math.max(extractor.getSampleSize(), 0));
+                mData.clear();
+                sampleSize = extractor.getFrameSample(mData, mDataSize);
+                BufferInfo info = extractor.getBufferInfo();
+                if (sampleSize > 0) {
+                    addIndexEntry(sampleSize, info.presentationTimeUs, info.flags);
+                } else {
+                    addIndexEntry(0, info.presentationTimeUs,
+                            info.flags | MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                }
+            } while (sampleSize > 0);
+            return this;
+        }
+
+        public SampleStore build() {
+            ByteBuffer data = mData.duplicate();
+            data.limit(mDataSize);
+            data.position(0);
+            return new SampleStore(data.slice().asReadOnlyBuffer(),
+                    Arrays.copyOf(mOffsets, mNumSamples), Arrays.copyOf(mSizes, mNumSamples),
+                    Arrays.copyOf(mPresentationTimesUs, mNumSamples),
+                    Arrays.copyOf(mFlags, mNumSamples));
+        }
+    }
+}
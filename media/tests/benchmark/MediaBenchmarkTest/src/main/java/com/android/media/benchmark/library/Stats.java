@@ -19,96 +19,632 @@ package com.android.media.benchmark.library;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileDescriptor;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Measures Performance.
  */
 public class Stats {
     private static final String TAG = "Stats";
+    private static final int INITIAL_TIMER_CAPACITY = 4096;
+    // Columns of the rows written by dumpStatistics, new columns are only ever appended
+    private static final String[] STATS_COLUMNS = {
+            "currentTime", "fileName", "operation", "componentName", "NDK/SDK", "sync/async",
+            "setupTime", "destroyTime", "minimumTime", "maximumTime", "averageTime",
+            "timeToProcess1SecContent", "totalBytesProcessedPerSec", "timeToFirstFrame",
+            "totalSizeInBytes", "totalTime",
+            "intervalP50", "intervalP90", "intervalP99", "intervalP99.9",
+            "latencyP50", "latencyP90", "latencyP99", "latencyP99.9",
+            "residencyP50", "residencyP90", "residencyP99", "residencyP99.9",
+            "averagePipelineDepth", "maximumPipelineDepth",
+            "intervalStdDev", "targetInterval", "intervalsOverTarget",
+            "droppedOutputWrites", "lateOutputWrites",
+            "renderedFrames", "droppedFrames",
+            "releaseLateP50", "releaseLateP90", "releaseLateP99", "releaseLateP99.9",
+            "wakeupLateP50", "wakeupLateP90", "wakeupLateP99", "wakeupLateP99.9",
+            "averageReleaseQueueDepth", "maximumReleaseQueueDepth"};
+    // Columns of the rows written by dumpTimeline
+    private static final String[] TIMELINE_COLUMNS = {
+            "fileName", "operation", "componentName", "sync/async", "bucketStartTime",
+            "bucketDuration", "frames", "bytes", "framesPerSec", "bytesPerSec"};
+    private static final int DEPTH_SAMPLES = 4096;
+    private static final int IN_FLIGHT_CAPACITY = 1024;
     private long mInitTimeNs;
     private long mDeInitTimeNs;
-    private long mStartTimeNs;
-    private ArrayList<Integer> mFrameSizes;
+    // Expected time between outputs, 0 if the frame rate is not known
+    private volatile long mTargetIntervalNs;
     /*
-     * Array for holding the wallclock time
-     * for each input buffer available.
+     * When non-zero, the timer and frame size arrays of each recorder have this
+     * fixed capacity and are used as ring buffers that keep only the most recent
+     * entries. Totals are then taken from the running aggregates, so memory stays
+     * constant however many frames are recorded.
      */
-    private ArrayList<Long> mInputTimer;
+    private volatile int mRingCapacity;
+    private volatile int mReservedFrames;
+    // Writes of the output dump that were dropped or had to wait for a free buffer
+    private final AtomicLong mDroppedOutputWrites = new AtomicLong();
+    private final AtomicLong mLateOutputWrites = new AtomicLong();
+    private final FrameReleaseStats mFrameReleaseStats = new FrameReleaseStats();
     /*
-     * Array for holding the wallclock time
-     * for each output buffer available.
-     * This is used for determining the decoded
-     * frame intervals.
+     * Samples are recorded by codec callback threads, input and output callbacks
+     * may run concurrently and several codecs may share one Stats. Each thread
+     * records into its own Recorder, so recording needs no lock. The recorders
+     * are kept in a list that is only ever pushed to, and are merged when the
+     * stats are read. Inputs are matched to their outputs through state shared
+     * lock-free by all the recorders, since their input and output may be
+     * reported on different threads.
      */
-    private ArrayList<Long> mOutputTimer;
+    private final Shared mShared = new Shared();
+    private final AtomicReference<Recorder> mRecorders = new AtomicReference<>();
+    private final ThreadLocal<Recorder> mRecorder = new ThreadLocal<Recorder>() {
+        @Override
+        protected Recorder initialValue() {
+            Recorder recorder = new Recorder(mShared, getTimerCapacity(), mRingCapacity > 0);
+            push(recorder);
+            return recorder;
+        }
+    };
+
+    /**
+     * State shared by the recorders of a Stats. It does not reference the Stats, so that
+     * a recorder left in the ThreadLocal of a long-lived thread does not keep the Stats,
+     * and with it the ThreadLocal key, reachable.
+     */
+    private static final class Shared {
+        private volatile long mStartTimeNs;
+        // Access units in flight, matched to their output by presentation timestamp
+        private final PresentationTimeMap mPresentationTimes =
+                new PresentationTimeMap(IN_FLIGHT_CAPACITY);
+        // Input times in recording order, the n-th output is matched to the n-th input
+        private final AtomicLongArray mInputTimes = new AtomicLongArray(IN_FLIGHT_CAPACITY);
+        private final AtomicLong mInputCount = new AtomicLong();
+        private final AtomicLong mOutputCount = new AtomicLong();
+
+        private void addInputTime(long timeNs) {
+            long index = mInputCount.getAndIncrement();
+            mInputTimes.set((int) (index % mInputTimes.length()), timeNs);
+        }
+
+        // Returns the time of the input matching the next output, NOT_FOUND if there is
+        // none or it was overwritten
+        private long takeInputTime() {
+            long index = mOutputCount.getAndIncrement();
+            long inputCount = mInputCount.get();
+            if (index >= inputCount || inputCount - index > mInputTimes.length()) {
+                return PresentationTimeMap.NOT_FOUND;
+            }
+            return mInputTimes.get((int) (index % mInputTimes.length()));
+        }
+
+        private void reset() {
+            mPresentationTimes.clear();
+            mInputCount.set(0);
+            mOutputCount.set(0);
+        }
+    }
+
+    /**
+     * Samples recorded by one thread. Only that thread writes to it; other threads
+     * read it once recording has stopped.
+     */
+    private static final class Recorder {
+        private final Shared mShared;
+        private Recorder mNext;
+        private boolean mRingMode;
+        private int[] mFrameSizes;
+        private long mFrameSizeCount;
+        private final RunningStats mFrameSizeStats = new RunningStats();
+        /*
+         * Array for holding the wallclock time
+         * for each input buffer available.
+         */
+        private long[] mInputTimer;
+        private long mInputCount;
+        /*
+         * Array for holding the wallclock time
+         * for each output buffer available.
+         * This is used for determining the decoded
+         * frame intervals.
+         */
+        private long[] mOutputTimer;
+        private long mOutputCount;
+        private long mFirstOutputTimeNs;
+        private long mLastOutputTimeNs;
+        // Intervals from the start time to each output, used for the min/max columns
+        private final RunningStats mOutputIntervalStats = new RunningStats();
+        // Intervals between consecutive outputs, used for the jitter profile
+        private final RunningStats mFrameIntervalStats = new RunningStats();
+        /*
+         * Distribution of the time between consecutive output buffers, and of the
+         * time between the n-th input buffer and the n-th output buffer, whichever
+         * threads recorded them.
+         */
+        private final LatencyHistogram mOutputIntervalHistogram = new LatencyHistogram();
+        private final LatencyHistogram mInputToOutputHistogram = new LatencyHistogram();
+        /*
+         * Time spent inside the codec by each access unit, matched by
+         * presentation timestamp.
+         */
+        private final LatencyTracker mLatencyTracker;
+        // Frames and bytes processed per time window since the start time
+        private final ThroughputTimeline mTimeline = new ThroughputTimeline();
+
+        private Recorder(Shared shared, int capacity, boolean ringMode) {
+            mShared = shared;
+            mLatencyTracker = new LatencyTracker(shared.mPresentationTimes, DEPTH_SAMPLES);
+            allocate(capacity, ringMode);
+            mTimeline.reset(shared.mStartTimeNs);
+        }
+
+        private void allocate(int capacity, boolean ringMode) {
+            mRingMode = ringMode;
+            mFrameSizes = new int[capacity];
+            mInputTimer = new long[capacity];
+            mOutputTimer = new long[capacity];
+        }
+
+        private void reserve(int numFrames) {
+            if (mRingMode) {
+                return;
+            }
+            if (mFrameSizes.length < numFrames) {
+                mFrameSizes = Arrays.copyOf(mFrameSizes, numFrames);
+            }
+            if (mInputTimer.length < numFrames) {
+                mInputTimer = Arrays.copyOf(mInputTimer, numFrames);
+            }
+            if (mOutputTimer.length < numFrames) {
+                mOutputTimer = Arrays.copyOf(mOutputTimer, numFrames);
+            }
+        }
+
+        private void addFrameSize(int size, long timeNs) {
+            if (!mRingMode && mFrameSizeCount == mFrameSizes.length) {
+                mFrameSizes = Arrays.copyOf(mFrameSizes, mFrameSizes.length * 2);
+            }
+            mFrameSizes[(int) (mFrameSizeCount % mFrameSizes.length)] = size;
+            mFrameSizeCount++;
+            mFrameSizeStats.add(size);
+            mTimeline.addBytes(timeNs, size);
+        }
+
+        private void addInputTime(long timeNs) {
+            mInputTimer = ensureCapacity(mInputTimer, mInputCount);
+            mInputTimer[(int) (mInputCount % mInputTimer.length)] = timeNs;
+            mInputCount++;
+            mShared.addInputTime(timeNs);
+        }
+
+        private void addOutputTime(long curTimeNs) {
+            long prevTimeNs = (mOutputCount == 0) ? mShared.mStartTimeNs : mLastOutputTimeNs;
+            mOutputIntervalStats.add(curTimeNs - prevTimeNs);
+            if (mOutputCount > 0) {
+                mFrameIntervalStats.add(curTimeNs - prevTimeNs);
+                mOutputIntervalHistogram.record(curTimeNs - prevTimeNs);
+            }
+            long inputTimeNs = mShared.takeInputTime();
+            if (inputTimeNs != PresentationTimeMap.NOT_FOUND) {
+                mInputToOutputHistogram.record(curTimeNs - inputTimeNs);
+            }
+            mOutputTimer = ensureCapacity(mOutputTimer, mOutputCount);
+            mOutputTimer[(int) (mOutputCount % mOutputTimer.length)] = curTimeNs;
+            if (mOutputCount == 0) {
+                mFirstOutputTimeNs = curTimeNs;
+            }
+            mLastOutputTimeNs = curTimeNs;
+            mOutputCount++;
+            mTimeline.addFrame(curTimeNs);
+        }
+
+        private long[] ensureCapacity(long[] timer, long count) {
+            if (mRingMode || count < timer.length) {
+                return timer;
+            }
+            return Arrays.copyOf(timer, timer.length * 2);
+        }
+
+        private Recorder copy(Shared shared) {
+            Recorder copy = new Recorder(shared, 1, mRingMode);
+            copy.mFrameSizes = mFrameSizes.clone();
+            copy.mInputTimer = mInputTimer.clone();
+            copy.mOutputTimer = mOutputTimer.clone();
+            copy.add(this);
+            return copy;
+        }
+
+        // Adds the aggregates of another recorder, the timers are not merged.
+        private void add(Recorder other) {
+            mFrameSizeCount += other.mFrameSizeCount;
+            mFrameSizeStats.add(other.mFrameSizeStats);
+            mInputCount += other.mInputCount;
+            if (other.mOutputCount > 0) {
+                mFirstOutputTimeNs = (mOutputCount == 0) ? other.mFirstOutputTimeNs
+                        : Math.min(mFirstOutputTimeNs, other.mFirstOutputTimeNs);
+                mLastOutputTimeNs = (mOutputCount == 0) ? other.mLastOutputTimeNs
+                        : Math.max(mLastOutputTimeNs, other.mLastOutputTimeNs);
+            }
+            mOutputCount += other.mOutputCount;
+            mOutputIntervalStats.add(other.mOutputIntervalStats);
+            mFrameIntervalStats.add(other.mFrameIntervalStats);
+            mOutputIntervalHistogram.add(other.mOutputIntervalHistogram);
+            mInputToOutputHistogram.add(other.mInputToOutputHistogram);
+            mLatencyTracker.add(other.mLatencyTracker);
+            mTimeline.add(other.mTimeline);
+        }
+
+        private void reset() {
+            mFrameSizeCount = 0;
+            mInputCount = 0;
+            mOutputCount = 0;
+            mFirstOutputTimeNs = 0;
+            mLastOutputTimeNs = 0;
+            mFrameSizeStats.reset();
+            mOutputIntervalStats.reset();
+            mFrameIntervalStats.reset();
+            mOutputIntervalHistogram.reset();
+            mInputToOutputHistogram.reset();
+            mLatencyTracker.reset();
+            mTimeline.reset(mShared.mStartTimeNs);
+        }
+    }
 
     public Stats() {
-        mFrameSizes = new ArrayList<>();
-        mInputTimer = new ArrayList<>();
-        mOutputTimer = new ArrayList<>();
         mInitTimeNs = 0;
         mDeInitTimeNs = 0;
     }
 
+    /**
+     * Creates stats that keep at most the given number of timestamps and frame sizes.
+     *
+     * @param ringCapacity Number of most recent entries retained per array
+     */
+    public Stats(int ringCapacity) {
+        this();
+        setRingCapacity(ringCapacity);
+    }
+
+    /**
+     * Switches to bounded ring buffer storage for timestamps and frame sizes.
+     * This resets the recorded data.
+     *
+     * @param ringCapacity Number of most recent entries retained per array, per thread
+     */
+    public void setRingCapacity(int ringCapacity) {
+        if (ringCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid ring capacity " + ringCapacity);
+        }
+        mRingCapacity = ringCapacity;
+        for (Recorder recorder = mRecorders.get(); recorder != null;
+                recorder = recorder.mNext) {
+            recorder.allocate(ringCapacity, true);
+        }
+        reset();
+    }
+
+    private int getTimerCapacity() {
+        if (mRingCapacity > 0) {
+            return mRingCapacity;
+        }
+        return Math.max(INITIAL_TIMER_CAPACITY, mReservedFrames);
+    }
+
     public long getCurTime() { return System.nanoTime(); }
 
     public void setInitTime(long initTime) { mInitTimeNs = initTime; }
 
     public void setDeInitTime(long deInitTime) { mDeInitTimeNs = deInitTime; }
 
-    public void setStartTime() { mStartTimeNs = System.nanoTime(); }
+    public void setStartTime() { setStartTime(System.nanoTime()); }
 
-    public void addFrameSize(int size) { mFrameSizes.add(size); }
+    /**
+     * Sets the time the operation started. Must be called before the samples of the
+     * operation are recorded.
+     */
+    public void setStartTime(long startTimeNs) {
+        mShared.mStartTimeNs = startTimeNs;
+        for (Recorder recorder = mRecorders.get(); recorder != null;
+                recorder = recorder.mNext) {
+            recorder.mTimeline.reset(startTimeNs);
+        }
+    }
+
+    /**
+     * Sets the expected output frame rate, used to count outputs that arrive later than
+     * one frame interval after the previous one. When it is not set, the frame interval
+     * is derived from the content duration and the number of outputs.
+     */
+    public void setFrameRate(double frameRate) {
+        mTargetIntervalNs = frameRate > 0 ? (long) (1000000000 / frameRate) : 0;
+    }
 
-    public void addInputTime() { mInputTimer.add(System.nanoTime()); }
+    /**
+     * Adds the number of output dump writes that were dropped, and that had to wait
+     * for the writer, e.g. as counted by an AsyncOutputWriter.
+     */
+    public void addOutputWrites(long droppedWrites, long lateWrites) {
+        mDroppedOutputWrites.addAndGet(droppedWrites);
+        mLateOutputWrites.addAndGet(lateWrites);
+    }
 
-    public void addOutputTime() { mOutputTimer.add(System.nanoTime()); }
+    /**
+     * Adds the release stats of a FrameReleaseQueue. Must be called once its release is
+     * stopped.
+     */
+    public void addFrameReleases(FrameReleaseStats releaseStats) {
+        mFrameReleaseStats.add(releaseStats);
+    }
+
+    /**
+     * Preallocates room for the given number of frames so that recording them does not
+     * grow the arrays. Has no effect in ring mode.
+     */
+    public void reserve(int numFrames) {
+        if (mRingCapacity > 0 || numFrames <= 0) {
+            return;
+        }
+        mReservedFrames = Math.max(mReservedFrames, numFrames);
+        for (Recorder recorder = mRecorders.get(); recorder != null;
+                recorder = recorder.mNext) {
+            recorder.reserve(numFrames);
+        }
+    }
+
+    /*
+     * The add* methods below are called from codec callbacks, on any thread. They
+     * only update the primitive arrays and preallocated aggregates of the calling
+     * thread's recorder, so they take no lock and do not allocate once the arrays
+     * are large enough (always in ring mode, see reserve() otherwise).
+     * The overloads taking a time are for callers that already have one.
+     */
+    public void addFrameSize(int size) { addFrameSize(size, System.nanoTime()); }
+
+    public void addFrameSize(int size, long timeNs) { mRecorder.get().addFrameSize(size, timeNs); }
+
+    public void addInputTime() { addInputTime(System.nanoTime()); }
+
+    public void addInputTime(long timeNs) { mRecorder.get().addInputTime(timeNs); }
+
+    public void addOutputTime() { addOutputTime(System.nanoTime()); }
+
+    public void addOutputTime(long curTimeNs) { mRecorder.get().addOutputTime(curTimeNs); }
+
+    /**
+     * Records that an access unit with the given timestamp was queued to the codec.
+     */
+    public void addInputPresentationTime(long presentationTimeUs) {
+        addInputPresentationTime(presentationTimeUs, System.nanoTime());
+    }
+
+    public void addInputPresentationTime(long presentationTimeUs, long timeNs) {
+        mRecorder.get().mLatencyTracker.onInput(presentationTimeUs, timeNs);
+    }
 
+    /**
+     * Records that an output with the given timestamp was received from the codec.
+     */
+    public void addOutputPresentationTime(long presentationTimeUs) {
+        addOutputPresentationTime(presentationTimeUs, System.nanoTime());
+    }
+
+    public void addOutputPresentationTime(long presentationTimeUs, long timeNs) {
+        mRecorder.get().mLatencyTracker.onOutput(presentationTimeUs, timeNs);
+    }
+
+    /**
+     * Clears the recorded samples. Must not be called while samples are being recorded.
+     */
     public void reset() {
-        if (mFrameSizes.size() != 0) {
-            mFrameSizes.clear();
+        mTargetIntervalNs = 0;
+        mDroppedOutputWrites.set(0);
+        mLateOutputWrites.set(0);
+        mFrameReleaseStats.reset();
+        for (Recorder recorder = mRecorders.get(); recorder != null;
+                recorder = recorder.mNext) {
+            recorder.reset();
         }
+        mShared.reset();
+    }
 
-        if (mInputTimer.size() != 0) {
-            mInputTimer.clear();
+    /**
+     * Adds the samples of another Stats, e.g. of another codec instance that ran at the
+     * same time. The start time becomes the earlier of the two start times, so that the
+     * total time spans both runs. Must not be called while either is recording.
+     */
+    public void merge(Stats other) {
+        if (other.getOutputCount() == 0 && other.getInputCount() == 0) {
+            return;
         }
+        if (getOutputCount() == 0 && getInputCount() == 0) {
+            mShared.mStartTimeNs = other.getStartTime();
+        } else {
+            mShared.mStartTimeNs = Math.min(getStartTime(), other.getStartTime());
+        }
+        mInitTimeNs = Math.max(mInitTimeNs, other.mInitTimeNs);
+        mDeInitTimeNs = Math.max(mDeInitTimeNs, other.mDeInitTimeNs);
+        if (mTargetIntervalNs == 0) {
+            mTargetIntervalNs = other.mTargetIntervalNs;
+        }
+        addOutputWrites(other.getDroppedOutputWrites(), other.getLateOutputWrites());
+        addFrameReleases(other.mFrameReleaseStats);
+        for (Recorder recorder = other.mRecorders.get(); recorder != null;
+                recorder = recorder.mNext) {
+            push(recorder.copy(mShared));
+        }
+    }
+
+    private void push(Recorder recorder) {
+        do {
+            recorder.mNext = mRecorders.get();
+        } while (!mRecorders.compareAndSet(recorder.mNext, recorder));
+    }
 
-        if (mOutputTimer.size() != 0) {
-            mOutputTimer.clear();
+    /*
+     * The getters below merge the samples of all the threads. They must be called
+     * once recording has stopped, e.g. after the codec was stopped.
+     */
+    private Recorder mergeRecorders() {
+        Recorder merged = new Recorder(mShared, 1, true);
+        for (Recorder recorder = mRecorders.get(); recorder != null;
+                recorder = recorder.mNext) {
+            merged.add(recorder);
         }
+        return merged;
     }
 
     public long getInitTime() { return mInitTimeNs; }
 
     public long getDeInitTime() { return mDeInitTimeNs; }
 
-    public long getStartTime() { return mStartTimeNs; }
+    public long getStartTime() { return mShared.mStartTimeNs; }
+
+    public long getDroppedOutputWrites() { return mDroppedOutputWrites.get(); }
+
+    public long getLateOutputWrites() { return mLateOutputWrites.get(); }
+
+    public FrameReleaseStats getFrameReleaseStats() { return mFrameReleaseStats; }
+
+    /**
+     * Returns the recorded output times in order. In ring mode only the most recent
+     * ones of each thread are returned.
+     */
+    public List<Long> getOutputTimers() {
+        ArrayList<Long> list = new ArrayList<>();
+        for (Recorder recorder = mRecorders.get(); recorder != null;
+                recorder = recorder.mNext) {
+            addTimers(list, recorder.mOutputTimer, recorder.mOutputCount);
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * Returns the recorded input times in order. In ring mode only the most recent
+     * ones of each thread are returned.
+     */
+    public List<Long> getInputTimers() {
+        ArrayList<Long> list = new ArrayList<>();
+        for (Recorder recorder = mRecorders.get(); recorder != null;
+                recorder = recorder.mNext) {
+            addTimers(list, recorder.mInputTimer, recorder.mInputCount);
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    public long getOutputCount() {
+        long count = 0;
+        for (Recorder recorder = mRecorders.get(); recorder != null;
+                recorder = recorder.mNext) {
+            count += recorder.mOutputCount;
+        }
+        return count;
+    }
+
+    public long getInputCount() {
+        long count = 0;
+        for (Recorder recorder = mRecorders.get(); recorder != null;
+                recorder = recorder.mNext) {
+            count += recorder.mInputCount;
+        }
+        return count;
+    }
+
+    public RunningStats getFrameSizeStats() { return mergeRecorders().mFrameSizeStats; }
+
+    public RunningStats getOutputIntervalStats() {
+        return mergeRecorders().mOutputIntervalStats;
+    }
+
+    public RunningStats getFrameIntervalStats() { return mergeRecorders().mFrameIntervalStats; }
+
+    public LatencyHistogram getOutputIntervalHistogram() {
+        return mergeRecorders().mOutputIntervalHistogram;
+    }
+
+    public LatencyHistogram getInputToOutputHistogram() {
+        return mergeRecorders().mInputToOutputHistogram;
+    }
 
-    public List<Long> getOutputTimers() { return mOutputTimer; }
+    public LatencyTracker getLatencyTracker() { return mergeRecorders().mLatencyTracker; }
 
-    public List<Long> getInputTimers() { return mInputTimer; }
+    public ThroughputTimeline getThroughputTimeline() { return mergeRecorders().mTimeline; }
+
+    private static void addTimers(List<Long> list, long[] timer, long count) {
+        int retained = (int) Math.min(count, timer.length);
+        for (long idx = count - retained; idx < count; idx++) {
+            list.add(timer[(int) (idx % timer.length)]);
+        }
+    }
 
     public long getTimeDiff(long sTime, long eTime) { return (eTime - sTime); }
 
-    public long getTotalTime() {
-        if (mOutputTimer.size() == 0) {
+    public long getTotalTime() { return getTotalTime(mergeRecorders()); }
+
+    private long getTotalTime(Recorder merged) {
+        if (merged.mOutputCount == 0) {
             return -1;
         }
-        long lastTime = mOutputTimer.get(mOutputTimer.size() - 1);
-        return lastTime - mStartTimeNs;
+        return merged.mLastOutputTimeNs - getStartTime();
     }
 
-    public long getTotalSize() {
-        long totalSize = 0;
-        for (long size : mFrameSizes) {
-            totalSize += size;
+    public long getTotalSize() { return getFrameSizeStats().getSum(); }
+
+    /**
+     * Returns the names of the columns written by dumpStatistics, in order.
+     */
+    public static String[] getColumnNames() { return STATS_COLUMNS.clone(); }
+
+    /**
+     * Returns the names of the columns written by dumpTimeline, in order.
+     */
+    public static String[] getTimelineColumnNames() { return TIMELINE_COLUMNS.clone(); }
+
+    /**
+     * Writes the header of the throughput timeline to a reporter
+     * <p>
+     * \param reporter     reporter where the timeline is to be written
+     **/
+    public void writeTimelineHeader(StatsReporter reporter) throws IOException {
+        reporter.writeHeader(TIMELINE_COLUMNS);
+    }
+
+    /**
+     * Writes the throughput timeline, one row per time window.
+     * <p>
+     * \param inputReference input media
+     * \param operation      describes the operation performed on the input media
+     * (i.e. extract/mux/decode/encode)
+     * \param componentName  name of the codec/muxFormat/mime
+     * \param mode           the operating mode: sync/async.
+     * \param reporter       the reporter where the timeline is to be written.
+     */
+    public void dumpTimeline(String inputReference, String operation, String componentName,
+            String mode, StatsReporter reporter) throws IOException {
+        ThroughputTimeline timeline = getThroughputTimeline();
+        long bucketWidthNs = timeline.getBucketWidthNs();
+        for (int bucket = 0; bucket < timeline.getNumBuckets(); bucket++) {
+            int frames = timeline.getFrames(bucket);
+            long bytes = timeline.getBytes(bucket);
+            reporter.beginRow();
+            reporter.addField("fileName", inputReference);
+            reporter.addField("operation", operation);
+            reporter.addField("componentName", componentName);
+            reporter.addField("sync/async", mode);
+            reporter.addField("bucketStartTime", bucket * bucketWidthNs);
+            reporter.addField("bucketDuration", bucketWidthNs);
+            reporter.addField("frames", frames);
+            reporter.addField("bytes", bytes);
+            reporter.addField("framesPerSec", frames * 1e9 / bucketWidthNs);
+            reporter.addField("bytesPerSec", bytes * 1e9 / bucketWidthNs);
+            reporter.endRow();
         }
-        return totalSize;
     }
 
     /**
@@ -117,20 +653,24 @@ public class Stats {
      * \param statsFile    file where the stats data is to be written
      **/
     public boolean writeStatsHeader(String statsFile) throws IOException {
-        File outputFile = new File(statsFile);
-        FileOutputStream out = new FileOutputStream(outputFile, true);
-        if (!outputFile.exists())
-            return false;
-        String statsHeader =
-                "currentTime, fileName, operation, componentName, NDK/SDK, sync/async, setupTime, "
-                        + "destroyTime, minimumTime, maximumTime, "
-                        + "averageTime, timeToProcess1SecContent, totalBytesProcessedPerSec, "
-                        + "timeToFirstFrame, totalSizeInBytes, totalTime\n";
-        out.write(statsHeader.getBytes());
-        out.close();
+        try (StatsReporter reporter = new CsvStatsReporter(statsFile)) {
+            if (!new File(statsFile).exists()) {
+                return false;
+            }
+            writeStatsHeader(reporter);
+        }
         return true;
     }
 
+    /**
+     * Writes the stats header to a reporter
+     * <p>
+     * \param reporter     reporter where the stats data is to be written
+     **/
+    public void writeStatsHeader(StatsReporter reporter) throws IOException {
+        reporter.writeHeader(STATS_COLUMNS);
+    }
+
     /**
      * Dumps the stats of the operation for a given input media.
      * <p>
@@ -144,52 +684,100 @@ public class Stats {
      */
     public void dumpStatistics(String inputReference, String operation, String componentName,
             String mode, long durationUs, String statsFile) throws IOException {
-        if (mOutputTimer.size() == 0) {
+        try (StatsReporter reporter = new CsvStatsReporter(statsFile)) {
+            dumpStatistics(inputReference, operation, componentName, mode, durationUs, reporter);
+        }
+    }
+
+    /**
+     * Dumps the stats of the operation for a given input media.
+     * <p>
+     * \param inputReference input media
+     * \param operation      describes the operation performed on the input media
+     * (i.e. extract/mux/decode/encode)
+     * \param componentName  name of the codec/muxFormat/mime
+     * \param mode           the operating mode: sync/async.
+     * \param durationUs     is a duration of the input media in microseconds.
+     * \param reporter       the reporter where the stats data is to be written.
+     */
+    public void dumpStatistics(String inputReference, String operation, String componentName,
+            String mode, long durationUs, StatsReporter reporter) throws IOException {
+        Recorder merged = mergeRecorders();
+        long outputCount = merged.mOutputCount;
+        if (outputCount == 0) {
             Log.e(TAG, "No output produced");
             return;
         }
-        long totalTimeTakenNs = getTotalTime();
+        long totalTimeTakenNs = getTotalTime(merged);
         long timeTakenPerSec = (totalTimeTakenNs * 1000000) / durationUs;
-        long timeToFirstFrameNs = mOutputTimer.get(0) - mStartTimeNs;
-        long size = getTotalSize();
-        // get min and max output intervals.
-        long intervalNs;
-        long minTimeTakenNs = Long.MAX_VALUE;
-        long maxTimeTakenNs = 0;
-        long prevIntervalNs = mStartTimeNs;
-        for (int idx = 0; idx < mOutputTimer.size() - 1; idx++) {
-            intervalNs = mOutputTimer.get(idx) - prevIntervalNs;
-            prevIntervalNs = mOutputTimer.get(idx);
-            if (minTimeTakenNs > intervalNs) {
-                minTimeTakenNs = intervalNs;
-            } else if (maxTimeTakenNs < intervalNs) {
-                maxTimeTakenNs = intervalNs;
-            }
+        long timeToFirstFrameNs = merged.mFirstOutputTimeNs - getStartTime();
+        long size = merged.mFrameSizeStats.getSum();
+        // get min and max output intervals, every interval up to the last output counts.
+        long minTimeTakenNs = merged.mOutputIntervalStats.getMin();
+        long maxTimeTakenNs = merged.mOutputIntervalStats.getMax();
+        // frame pacing, intervals longer than one frame are visible as jitter.
+        long targetIntervalNs = mTargetIntervalNs;
+        if (targetIntervalNs == 0 && durationUs > 0) {
+            targetIntervalNs = durationUs * 1000 / outputCount;
         }
+        LatencyHistogram intervals = merged.mOutputIntervalHistogram;
+        LatencyHistogram latency = merged.mInputToOutputHistogram;
+        LatencyHistogram residency = merged.mLatencyTracker.getResidencyHistogram();
+        RunningStats depth = merged.mLatencyTracker.getPipelineDepthStats();
+        LatencyHistogram releaseLate = mFrameReleaseStats.getLateByHistogram();
+        LatencyHistogram wakeupLate = mFrameReleaseStats.getWakeupLateHistogram();
+        RunningStats releaseDepth = mFrameReleaseStats.getQueueDepthStats();
 
-        // Write the stats row data to file
-        String rowData = "";
-        rowData += System.nanoTime() + ", ";
-        rowData += inputReference + ", ";
-        rowData += operation + ", ";
-        rowData += componentName + ", ";
-        rowData += "SDK, ";
-        rowData += mode + ", ";
-        rowData += mInitTimeNs + ", ";
-        rowData += mDeInitTimeNs + ", ";
-        rowData += minTimeTakenNs + ", ";
-        rowData += maxTimeTakenNs + ", ";
-        rowData += totalTimeTakenNs / mOutputTimer.size() + ", ";
-        rowData += timeTakenPerSec + ", ";
-        rowData += (size * 1000000000) / totalTimeTakenNs + ", ";
-        rowData += timeToFirstFrameNs + ", ";
-        rowData += size + ", ";
-        rowData += totalTimeTakenNs + "\n";
-
-        File outputFile = new File(statsFile);
-        FileOutputStream out = new FileOutputStream(outputFile, true);
-        assert outputFile.exists() : "Failed to open the stats file for writing!";
-        out.write(rowData.getBytes());
-        out.close();
+        // Write the stats row data to the reporter
+        reporter.beginRow();
+        reporter.addField("currentTime", System.nanoTime());
+        reporter.addField("fileName", inputReference);
+        reporter.addField("operation", operation);
+        reporter.addField("componentName", componentName);
+        reporter.addField("NDK/SDK", "SDK");
+        reporter.addField("sync/async", mode);
+        reporter.addField("setupTime", mInitTimeNs);
+        reporter.addField("destroyTime", mDeInitTimeNs);
+        reporter.addField("minimumTime", minTimeTakenNs);
+        reporter.addField("maximumTime", maxTimeTakenNs);
+        reporter.addField("averageTime", totalTimeTakenNs / outputCount);
+        reporter.addField("timeToProcess1SecContent", timeTakenPerSec);
+        reporter.addField("totalBytesProcessedPerSec", (size * 1000000000) / totalTimeTakenNs);
+        reporter.addField("timeToFirstFrame", timeToFirstFrameNs);
+        reporter.addField("totalSizeInBytes", size);
+        reporter.addField("totalTime", totalTimeTakenNs);
+        reporter.addField("intervalP50", intervals.getValueAtPercentile(50.0));
+        reporter.addField("intervalP90", intervals.getValueAtPercentile(90.0));
+        reporter.addField("intervalP99", intervals.getValueAtPercentile(99.0));
+        reporter.addField("intervalP99.9", intervals.getValueAtPercentile(99.9));
+        reporter.addField("latencyP50", latency.getValueAtPercentile(50.0));
+        reporter.addField("latencyP90", latency.getValueAtPercentile(90.0));
+        reporter.addField("latencyP99", latency.getValueAtPercentile(99.0));
+        reporter.addField("latencyP99.9", latency.getValueAtPercentile(99.9));
+        reporter.addField("residencyP50", residency.getValueAtPercentile(50.0));
+        reporter.addField("residencyP90", residency.getValueAtPercentile(90.0));
+        reporter.addField("residencyP99", residency.getValueAtPercentile(99.0));
+        reporter.addField("residencyP99.9", residency.getValueAtPercentile(99.9));
+        reporter.addField("averagePipelineDepth", depth.getMean());
+        reporter.addField("maximumPipelineDepth", depth.getMax());
+        reporter.addField("intervalStdDev", merged.mFrameIntervalStats.getStdDev());
+        reporter.addField("targetInterval", targetIntervalNs);
+        reporter.addField("intervalsOverTarget",
+                intervals.getCountAbove(targetIntervalNs));
+        reporter.addField("droppedOutputWrites", mDroppedOutputWrites.get());
+        reporter.addField("lateOutputWrites", mLateOutputWrites.get());
+        reporter.addField("renderedFrames", mFrameReleaseStats.getRenderedFrames());
+        reporter.addField("droppedFrames", mFrameReleaseStats.getDroppedFrames());
+        reporter.addField("releaseLateP50", releaseLate.getValueAtPercentile(50.0));
+        reporter.addField("releaseLateP90", releaseLate.getValueAtPercentile(90.0));
+        reporter.addField("releaseLateP99", releaseLate.getValueAtPercentile(99.0));
+        reporter.addField("releaseLateP99.9", releaseLate.getValueAtPercentile(99.9));
+        reporter.addField("wakeupLateP50", wakeupLate.getValueAtPercentile(50.0));
+        reporter.addField("wakeupLateP90", wakeupLate.getValueAtPercentile(90.0));
+        reporter.addField("wakeupLateP99", wakeupLate.getValueAtPercentile(99.0));
+        reporter.addField("wakeupLateP99.9", wakeupLate.getValueAtPercentile(99.9));
+        reporter.addField("averageReleaseQueueDepth", releaseDepth.getMean());
+        reporter.addField("maximumReleaseQueueDepth", releaseDepth.getMax());
+        reporter.endRow();
     }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sink for benchmark results.
+ * <p>
+ * A reporter receives a header once and then any number of rows. Each row is written as a
+ * sequence of named fields between {@link #beginRow()} and {@link #endRow()}. A reporter is
+ * meant to stay open for a whole test suite and is not thread safe.
+ */
+public interface StatsReporter extends Closeable {
+    /**
+     * Writes the names of the columns that the following rows will contain.
+     */
+    void writeHeader(String[] columns) throws IOException;
+
+    void beginRow() throws IOException;
+
+    void addField(String name, long value) throws IOException;
+
+    void addField(String name, double value) throws IOException;
+
+    void addField(String name, String value) throws IOException;
+
+    void endRow() throws IOException;
+
+    void flush() throws IOException;
+}
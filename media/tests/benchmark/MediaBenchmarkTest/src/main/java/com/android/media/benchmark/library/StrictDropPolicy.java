@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+/**
+ * Releases every frame at its deadline, and drops the frames queued more than a threshold
+ * after it. The schedule never moves, so every late decoder output shows up as drops.
+ */
+public class StrictDropPolicy implements FrameReleasePolicy {
+    private final long mThresholdNs;
+
+    public StrictDropPolicy() { this(DEFAULT_THRESHOLD_NS); }
+
+    /**
+     * @param thresholdNs Time after its deadline a frame can be queued and still be rendered
+     */
+    public StrictDropPolicy(long thresholdNs) {
+        mThresholdNs = thresholdNs;
+    }
+
+    @Override
+    public void start(String mime, String codecName) {}
+
+    @Override
+    public long getReleaseTimeNs(long deadlineNs, long queueTimeNs, long nowNs) {
+        return queueTimeNs - deadlineNs > mThresholdNs ? DROP : deadlineNs;
+    }
+}
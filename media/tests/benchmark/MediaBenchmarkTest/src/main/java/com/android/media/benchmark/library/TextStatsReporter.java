@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Base class for reporters that append text rows to a file.
+ * <p>
+ * The file channel is opened once and kept open until {@link #close()}. Each row is
+ * formatted into a reused builder and written with a single append, so rows from other
+ * writers of the same file (e.g. the native benchmarks) are never interleaved with it.
+ */
+public abstract class TextStatsReporter implements StatsReporter {
+    private static final int INITIAL_ROW_CAPACITY = 1024;
+
+    private final FileOutputStream mOutputStream;
+    private final FileChannel mChannel;
+    private final CharsetEncoder mEncoder = StandardCharsets.UTF_8.newEncoder();
+    private CharBuffer mChars = CharBuffer.allocate(INITIAL_ROW_CAPACITY);
+    private ByteBuffer mBytes = ByteBuffer.allocate(INITIAL_ROW_CAPACITY * 4);
+    protected final StringBuilder mRow = new StringBuilder(INITIAL_ROW_CAPACITY);
+
+    /**
+     * Opens the file for appending.
+     *
+     * @param statsFile Path of the file to append to, created if needed
+     */
+    protected TextStatsReporter(String statsFile) throws IOException {
+        mOutputStream = new FileOutputStream(statsFile, true);
+        mChannel = mOutputStream.getChannel();
+    }
+
+    /**
+     * Writes the content of {@link #mRow} to the file and clears it.
+     */
+    protected void writeRow() throws IOException {
+        int length = mRow.length();
+        if (mChars.capacity() < length) {
+            mChars = CharBuffer.allocate(length);
+            mBytes = ByteBuffer.allocate(length * 4);
+        }
+        mChars.clear();
+        mRow.getChars(0, length, mChars.array(), 0);
+        mChars.limit(length);
+        mBytes.clear();
+        mEncoder.reset();
+        mEncoder.encode(mChars, mBytes, true);
+        mEncoder.flush(mBytes);
+        mBytes.flip();
+        while (mBytes.hasRemaining()) {
+            mChannel.write(mBytes);
+        }
+        mRow.setLength(0);
+    }
+
+    @Override
+    public void flush() {
+        // Rows are handed to the file system as soon as they are complete.
+    }
+
+    @Override
+    public void close() throws IOException { mOutputStream.close(); }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import java.util.Arrays;
+
+/**
+ * Counts frames and bytes in fixed width time buckets, e.g. to see the throughput change
+ * over a long run due to thermal throttling.
+ * <p>
+ * The buckets are preallocated. When a run outlasts them, adjacent buckets are merged and
+ * the bucket width doubles, so memory stays constant however long the run is.
+ */
+public class ThroughputTimeline {
+    public static final long DEFAULT_BUCKET_WIDTH_NS = 250000000L;
+    private static final int DEFAULT_NUM_BUCKETS = 4096;
+
+    private final long mInitialBucketWidthNs;
+    private final int[] mFrames;
+    private final long[] mBytes;
+    private long mBucketWidthNs;
+    private long mStartTimeNs;
+    private int mNumBuckets;
+
+    public ThroughputTimeline() { this(DEFAULT_BUCKET_WIDTH_NS, DEFAULT_NUM_BUCKETS); }
+
+    /**
+     * Creates a timeline.
+     *
+     * @param bucketWidthNs Initial width of a bucket in nanoseconds
+     * @param numBuckets    Number of buckets kept before they are merged
+     */
+    public ThroughputTimeline(long bucketWidthNs, int numBuckets) {
+        if (bucketWidthNs <= 0 || numBuckets < 2) {
+            throw new IllegalArgumentException("Invalid timeline: bucket width "
+                    + bucketWidthNs + " buckets " + numBuckets);
+        }
+        mInitialBucketWidthNs = bucketWidthNs;
+        mFrames = new int[numBuckets];
+        mBytes = new long[numBuckets];
+        reset(0);
+    }
+
+    /**
+     * Clears the timeline and sets the time of the start of the first bucket.
+     */
+    public void reset(long startTimeNs) {
+        Arrays.fill(mFrames, 0);
+        Arrays.fill(mBytes, 0);
+        mBucketWidthNs = mInitialBucketWidthNs;
+        mStartTimeNs = startTimeNs;
+        mNumBuckets = 0;
+    }
+
+    private int getBucket(long timeNs) {
+        long index = Math.max(0, timeNs - mStartTimeNs) / mBucketWidthNs;
+        while (index >= mFrames.length) {
+            coarsen();
+            index >>= 1;
+        }
+        if (index >= mNumBuckets) {
+            mNumBuckets = (int) index + 1;
+        }
+        return (int) index;
+    }
+
+    // Merges pairs of buckets, doubling the bucket width.
+    private void coarsen() {
+        int half = mFrames.length / 2;
+        for (int idx = 0; idx < half; idx++) {
+            mFrames[idx] = mFrames[2 * idx] + mFrames[2 * idx + 1];
+            mBytes[idx] = mBytes[2 * idx] + mBytes[2 * idx + 1];
+        }
+        Arrays.fill(mFrames, half, mFrames.length, 0);
+        Arrays.fill(mBytes, half, mBytes.length, 0);
+        mNumBuckets = (mNumBuckets + 1) / 2;
+        mBucketWidthNs *= 2;
+    }
+
+    /**
+     * Adds the frames and bytes of another timeline. Each of its buckets is counted in
+     * the bucket of this timeline that holds its start time.
+     */
+    public void add(ThroughputTimeline other) {
+        while (mBucketWidthNs < other.mBucketWidthNs) {
+            coarsen();
+        }
+        for (int idx = 0; idx < other.mNumBuckets; idx++) {
+            int bucket = getBucket(other.mStartTimeNs + idx * other.mBucketWidthNs);
+            mFrames[bucket] += other.mFrames[idx];
+            mBytes[bucket] += other.mBytes[idx];
+        }
+    }
+
+    public void addFrame(long timeNs) { mFrames[getBucket(timeNs)]++; }
+
+    public void addBytes(long timeNs, long bytes) { mBytes[getBucket(timeNs)] += bytes; }
+
+    public int getNumBuckets() { return mNumBuckets; }
+
+    public long getBucketWidthNs() { return mBucketWidthNs; }
+
+    public long getStartTimeNs() { return mStartTimeNs; }
+
+    public int getFrames(int bucket) { return mFrames[bucket]; }
+
+    public long getBytes(int bucket) { return mBytes[bucket]; }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transcodes by wiring a Decoder to an Encoder through an IBufferXferImpl, so that the
+ * decoded frames are copied straight into the encoder input buffers, and measures the
+ * pipeline.
+ * <p>
+ * Besides the end to end throughput, the utilization of each stage is reported, to show
+ * whether decode, copy or encode is the bottleneck. The decode stage counts as idle while
+ * decoded frames wait for an encoder input buffer, the encode stage while encoder input
+ * buffers wait for a decoded frame, and the copy stage is busy while buffers are paired
+ * and copied. The stage close to full utilization is the one holding up the others.
+ * <p>
+ * A Transcoder runs a single transcode.
+ */
+public class Transcoder {
+    private static final String TAG = "Transcoder";
+    // Time given to the codec threads to stop once the transcode is over
+    private static final long TERMINATION_TIMEOUT_MS = 5000;
+    // Columns of the rows written by dumpTranscode
+    private static final String[] TRANSCODE_COLUMNS = {
+            "fileName", "decoderName", "encoderName", "sync/async", "frames", "totalTime",
+            "framesPerSec", "decodeUtilization", "copyUtilization", "encodeUtilization",
+            "blockedTime", "blockedSends", "droppedBuffers"};
+
+    private final Decoder mDecoder;
+    private final Encoder mEncoder;
+    private final IBufferXferImpl mXfer;
+    private long mTotalTimeNs;
+
+    public Transcoder() {
+        mDecoder = new Decoder();
+        mEncoder = new Encoder();
+        // Connects the decoder output to the encoder input
+        mXfer = new IBufferXferImpl(mDecoder, mEncoder);
+    }
+
+    public Decoder getDecoder() { return mDecoder; }
+
+    public Encoder getEncoder() { return mEncoder; }
+
+    public IBufferXferImpl getBufferXfer() { return mXfer; }
+
+    /**
+     * Decodes the given samples and encodes the decoded frames, with the decoder and the
+     * encoder running at the same time.
+     *
+     * @param samples      Samples to decode, the last one must carry the end of stream flag
+     * @param asyncMode    Will run both codecs on async implementation if true
+     * @param decodeFormat For creating the decoder if decoderName is empty and configuring it
+     * @param decoderName  Will create the decoder with decoderName
+     * @param encodeFormat Format of the encoder output. Video frames are copied as they come
+     *                     out of the decoder, so the encoder must take the same size and color
+     *                     format, with input buffers large enough for a whole frame
+     * @param encoderName  Will create the encoder with encoderName
+     * @return 0 if the transcode was successful, otherwise the error of the codec that
+     *         failed first, or DECODE_DECODER_ERROR if decoded frames did not fit in the
+     *         encoder input buffers
+     * @throws IOException if a codec cannot be created.
+     */
+    public int transcode(@NonNull final SampleStore samples, final boolean asyncMode,
+            @NonNull final MediaFormat decodeFormat, @NonNull final String decoderName,
+            @NonNull final MediaFormat encodeFormat, @NonNull final String encoderName)
+            throws IOException, InterruptedException {
+        final String mime = encodeFormat.getString(MediaFormat.KEY_MIME);
+        int frameRate = 0;
+        int sampleRate = 0;
+        int frameSize;
+        if (mime.startsWith("video/")) {
+            frameRate = encodeFormat.getNumber(MediaFormat.KEY_FRAME_RATE, 0).intValue();
+            frameSize = encodeFormat.getInteger(MediaFormat.KEY_WIDTH)
+                    * encodeFormat.getInteger(MediaFormat.KEY_HEIGHT) * 3 / 2;
+        } else {
+            sampleRate = encodeFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channelCount = encodeFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            // 16 bit PCM, which can be split across encoder input buffers
+            mXfer.setBytesPerSecond(sampleRate * channelCount * 2);
+            frameSize = 4096;
+        }
+        final int encodeFrameRate = frameRate;
+        final int encodeSampleRate = sampleRate;
+        final int encodeFrameSize = frameSize;
+
+        HandlerThread callbackThread = null;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // -1 decodes every sample, setupDecoder(null) would leave the frame limit at 0
+            mDecoder.setupDecoder(null, false, false, 0, -1);
+            if (asyncMode) {
+                // Keeps the decoder callbacks off the thread the encoder callbacks run on
+                callbackThread = new HandlerThread(TAG + " " + decoderName);
+                callbackThread.start();
+                mDecoder.setCallbackHandler(new Handler(callbackThread.getLooper()));
+            }
+            mEncoder.setupEncoder(null, null);
+            long startNs = System.nanoTime();
+            CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+            completion.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return mEncoder.encode(encoderName, encodeFormat, mime, encodeFrameRate,
+                            encodeSampleRate, encodeFrameSize, asyncMode);
+                }
+            });
+            completion.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return mDecoder.decode(samples, asyncMode, decodeFormat, decoderName);
+                }
+            });
+            // Once a codec failed the other one would wait forever for the end of stream,
+            // it is interrupted below
+            int status = Decoder.DECODE_SUCCESS;
+            for (int done = 0; done < 2 && status == Decoder.DECODE_SUCCESS; done++) {
+                status = getResult(completion.take());
+            }
+            if (status == Decoder.DECODE_SUCCESS && mXfer.getRejectedBuffers() > 0) {
+                // Decoded frames were not encoded, the results would be meaningless
+                Log.e(TAG, mXfer.getRejectedBuffers() + " decoded frames did not fit in an"
+                        + " encoder input buffer");
+                status = Decoder.DECODE_DECODER_ERROR;
+            }
+            if (status == Decoder.DECODE_SUCCESS) {
+                mTotalTimeNs = System.nanoTime() - startNs;
+            }
+            return status;
+        } finally {
+            // Unblocks a codec waiting for the transfer and hands the buffers still waiting
+            // back to the codecs before they go away
+            mXfer.resetAll();
+            executor.shutdownNow();
+            if (!executor.awaitTermination(TERMINATION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Codec threads did not stop");
+            }
+            mEncoder.deInitEncoder();
+            mDecoder.deInitCodec();
+            if (callbackThread != null) {
+                callbackThread.quitSafely();
+            }
+        }
+    }
+
+    private static int getResult(Future<Integer> result)
+            throws IOException, InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            Log.e(TAG, "Transcode failed: " + e.getCause());
+            return Decoder.DECODE_DECODER_ERROR;
+        }
+    }
+
+    /**
+     * Returns the time from starting the codecs to the last encoded frame, in nanoseconds.
+     */
+    public long getTotalTime() { return mTotalTimeNs; }
+
+    /** Returns the frames encoded per second, from start to end of the transcode. */
+    public double getFramesPerSec() {
+        return mTotalTimeNs > 0 ? mEncoder.getNumOutputFrames() * 1e9 / mTotalTimeNs : 0;
+    }
+
+    private double getUtilization(long busyTimeNs) {
+        if (mTotalTimeNs <= 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min(1, (double) busyTimeNs / mTotalTimeNs));
+    }
+
+    /** Returns the fraction of the transcode during which no decoded frame was waiting. */
+    public double getDecodeUtilization() {
+        return getUtilization(mTotalTimeNs - mXfer.getProducerQueuedTimeNs());
+    }
+
+    /** Returns the fraction of the transcode spent copying decoded frames. */
+    public double getCopyUtilization() { return getUtilization(mXfer.getTransferTimeNs()); }
+
+    /**
+     * Returns the fraction of the transcode during which no encoder input buffer was
+     * waiting.
+     */
+    public double getEncodeUtilization() {
+        return getUtilization(mTotalTimeNs - mXfer.getConsumerQueuedTimeNs());
+    }
+
+    /**
+     * Returns the names of the columns written by dumpTranscode, in order.
+     */
+    public static String[] getColumnNames() { return TRANSCODE_COLUMNS.clone(); }
+
+    /**
+     * Writes the header of the transcode report to a reporter
+     *
+     * @param reporter Reporter where the transcode report is to be written
+     */
+    public static void writeTranscodeHeader(StatsReporter reporter) throws IOException {
+        reporter.writeHeader(TRANSCODE_COLUMNS);
+    }
+
+    /**
+     * Writes the throughput of the transcode and the utilization of each stage, with the
+     * time the codecs were blocked on a full transfer queue.
+     *
+     * @param inputReference The input media
+     * @param decoderName    Name of the decoder, as written in the report
+     * @param encoderName    Name of the encoder, as written in the report
+     * @param mode           The operating mode: Sync/Async
+     * @param reporter       The reporter where the row is written
+     */
+    public void dumpTranscode(String inputReference, String decoderName, String encoderName,
+            String mode, StatsReporter reporter) throws IOException {
+        reporter.beginRow();
+        reporter.addField("fileName", inputReference);
+        reporter.addField("decoderName", decoderName);
+        reporter.addField("encoderName", encoderName);
+        reporter.addField("sync/async", mode);
+        reporter.addField("frames", mEncoder.getNumOutputFrames());
+        reporter.addField("totalTime", mTotalTimeNs);
+        reporter.addField("framesPerSec", getFramesPerSec());
+        reporter.addField("decodeUtilization", getDecodeUtilization());
+        reporter.addField("copyUtilization", getCopyUtilization());
+        reporter.addField("encodeUtilization", getEncodeUtilization());
+        reporter.addField("blockedTime", mXfer.getWaitTimeNs());
+        reporter.addField("blockedSends", mXfer.getBlockedSends());
+        reporter.addField("droppedBuffers", mXfer.getDroppedBuffers());
+        reporter.endRow();
+    }
+}
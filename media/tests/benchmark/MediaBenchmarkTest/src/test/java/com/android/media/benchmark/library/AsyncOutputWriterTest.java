@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Plain JVM tests for AsyncOutputWriter.
+ */
+public class AsyncOutputWriterTest {
+    private static final int NUM_WRITES = 2000;
+
+    private static int getWriteSize(int index) { return 1 + (index * 53) % 3000; }
+
+    @Test
+    public void testWritesAreKeptInOrder() throws IOException, InterruptedException {
+        File file = File.createTempFile("AsyncOutputWriterTest", ".bin");
+        file.deleteOnExit();
+        int totalSize = 0;
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            // Small buffers, so that the pool runs dry and some buffers have to grow
+            AsyncOutputWriter writer = new AsyncOutputWriter(stream.getChannel(),
+                    AsyncOutputWriter.Policy.BLOCK, 2, 1024);
+            ByteBuffer data = ByteBuffer.allocateDirect(getWriteSize(0) + 3000);
+            for (int index = 0; index < NUM_WRITES; index++) {
+                data.clear();
+                for (int pos = 0; pos < getWriteSize(index); pos++) {
+                    data.put((byte) index);
+                }
+                data.flip();
+                writer.write(data);
+                assertEquals(getWriteSize(index), data.remaining());
+                totalSize += getWriteSize(index);
+            }
+            writer.close();
+            assertEquals(0, writer.getDroppedWrites());
+            assertEquals(totalSize, writer.getBytesWritten());
+        }
+        byte[] written = Files.readAllBytes(file.toPath());
+        assertEquals(totalSize, written.length);
+        int pos = 0;
+        for (int index = 0; index < NUM_WRITES; index++) {
+            for (int end = pos + getWriteSize(index); pos < end; pos++) {
+                assertEquals((byte) index, written[pos]);
+            }
+        }
+    }
+
+    @Test
+    public void testWritesAfterCloseAreDropped() throws IOException, InterruptedException {
+        File file = File.createTempFile("AsyncOutputWriterTest", ".bin");
+        file.deleteOnExit();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            AsyncOutputWriter writer = new AsyncOutputWriter(stream.getChannel(),
+                    AsyncOutputWriter.Policy.DROP);
+            writer.write(ByteBuffer.wrap(new byte[16]));
+            writer.close();
+            assertFalse(writer.write(ByteBuffer.wrap(new byte[16])));
+            assertEquals(1, writer.getDroppedWrites());
+            assertEquals(16, writer.getBytesWritten());
+        }
+        assertEquals(16, file.length());
+    }
+
+    @Test
+    public void testCloseOutputAddsTheWriteCountsToStats()
+            throws IOException, InterruptedException {
+        File file = File.createTempFile("AsyncOutputWriterTest", ".bin");
+        file.deleteOnExit();
+        Stats stats = new Stats();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            AsyncOutputWriter writer = new AsyncOutputWriter(stream.getChannel(),
+                    AsyncOutputWriter.Policy.DROP);
+            AsyncOutputWriter.writeOutput(writer, ByteBuffer.wrap(new byte[16]));
+            writer.close();
+            AsyncOutputWriter.writeOutput(writer, ByteBuffer.wrap(new byte[16]));
+            AsyncOutputWriter.closeOutput(writer, stats);
+        }
+        AsyncOutputWriter.writeOutput(null, ByteBuffer.wrap(new byte[16]));
+        AsyncOutputWriter.closeOutput(null, stats);
+        assertEquals(1, stats.getDroppedOutputWrites());
+        assertEquals(0, stats.getLateOutputWrites());
+        assertEquals(16, file.length());
+    }
+
+    @Test
+    public void testCloseWhileWritesAreInFlight() throws IOException, InterruptedException {
+        final int numThreads = 4;
+        final int writeSize = 64;
+        File file = File.createTempFile("AsyncOutputWriterTest", ".bin");
+        file.deleteOnExit();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            final AsyncOutputWriter writer = new AsyncOutputWriter(stream.getChannel(),
+                    AsyncOutputWriter.Policy.BLOCK, 2, writeSize);
+            final AtomicLong accepted = new AtomicLong();
+            final CountDownLatch started = new CountDownLatch(numThreads);
+            final Throwable[] failures = new Throwable[1];
+            Thread[] threads = new Thread[numThreads];
+            for (int idx = 0; idx < numThreads; idx++) {
+                threads[idx] = new Thread(() -> {
+                    try {
+                        ByteBuffer data = ByteBuffer.allocate(writeSize);
+                        started.countDown();
+                        for (int write = 0; write < NUM_WRITES; write++) {
+                            if (writer.write(data)) {
+                                accepted.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failures[0] = t;
+                    }
+                });
+                threads[idx].start();
+            }
+            started.await();
+            writer.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertNull(failures[0]);
+            // Every write is either written out or counted as dropped
+            assertEquals(accepted.get() * writeSize, writer.getBytesWritten());
+            assertEquals((long) numThreads * NUM_WRITES,
+                    accepted.get() + writer.getDroppedWrites());
+            assertEquals(accepted.get() * writeSize, file.length());
+        }
+    }
+}
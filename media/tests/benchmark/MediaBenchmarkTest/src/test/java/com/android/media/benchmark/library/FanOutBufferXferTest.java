@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plain JVM tests for FanOutBufferXfer.
+ */
+public class FanOutBufferXferTest {
+    private static final int NUM_FRAMES = 10000;
+    private static final int NUM_CONSUMERS = 3;
+    private static final int NUM_BUFFERS = 8;
+    private static final int BUFFER_SIZE = 64;
+
+    /** End of the exchange that gets its buffers back through a queue. */
+    private static final class Endpoint implements IBufferXfer.IReceiveBuffer {
+        final ArrayBlockingQueue<IBufferXfer.BufferXferInfo> mReturned =
+                new ArrayBlockingQueue<>(NUM_BUFFERS);
+
+        Endpoint() {
+            for (int idx = 0; idx < NUM_BUFFERS; idx++) {
+                IBufferXfer.BufferXferInfo info = new IBufferXfer.BufferXferInfo();
+                info.buf = ByteBuffer.allocate(BUFFER_SIZE);
+                mReturned.add(info);
+            }
+        }
+
+        IBufferXfer.BufferXferInfo take() throws InterruptedException {
+            IBufferXfer.BufferXferInfo info = mReturned.poll(10, TimeUnit.SECONDS);
+            assertNotNull(info);
+            return info;
+        }
+
+        @Override
+        public boolean receiveBuffer(IBufferXfer.BufferXferInfo info) {
+            return mReturned.offer(info);
+        }
+
+        @Override
+        public boolean connect(IBufferXfer.ISendBuffer receiver) {
+            return true;
+        }
+    }
+
+    private static ArrayList<Endpoint> createConsumers() {
+        ArrayList<Endpoint> consumers = new ArrayList<>();
+        for (int idx = 0; idx < NUM_CONSUMERS; idx++) {
+            consumers.add(new Endpoint());
+        }
+        return consumers;
+    }
+
+    @Test
+    public void testEveryConsumerGetsEveryFrame() throws InterruptedException {
+        final Endpoint producer = new Endpoint();
+        final ArrayList<Endpoint> consumers = createConsumers();
+        final FanOutBufferXfer xfer =
+                new FanOutBufferXfer(producer, consumers, NUM_BUFFERS, false);
+        final Throwable[] failures = new Throwable[NUM_CONSUMERS + 1];
+        Thread[] threads = new Thread[NUM_CONSUMERS + 1];
+        threads[NUM_CONSUMERS] = new Thread(() -> {
+            try {
+                for (int frame = 0; frame < NUM_FRAMES; frame++) {
+                    IBufferXfer.BufferXferInfo info = producer.take();
+                    info.buf.clear();
+                    info.buf.limit(1 + frame % BUFFER_SIZE);
+                    info.buf.put(0, (byte) frame);
+                    info.presentationTimeUs = frame;
+                    assertTrue(xfer.sendBuffer(producer, info));
+                }
+            } catch (Throwable t) {
+                failures[NUM_CONSUMERS] = t;
+            }
+        });
+        for (int idx = 0; idx < NUM_CONSUMERS; idx++) {
+            final int index = idx;
+            final Endpoint consumer = consumers.get(idx);
+            threads[idx] = new Thread(() -> {
+                try {
+                    for (int buffer = 0; buffer < NUM_BUFFERS; buffer++) {
+                        assertTrue(xfer.sendBuffer(consumer, consumer.mReturned.poll()));
+                    }
+                    for (int frame = 0; frame < NUM_FRAMES; frame++) {
+                        IBufferXfer.BufferXferInfo info = consumer.take();
+                        assertEquals(frame, info.presentationTimeUs);
+                        assertEquals(1 + frame % BUFFER_SIZE, info.bytesRead);
+                        assertEquals((byte) frame, info.buf.get(0));
+                        if (frame + NUM_BUFFERS < NUM_FRAMES) {
+                            info.buf.clear();
+                            assertTrue(xfer.sendBuffer(consumer, info));
+                        }
+                    }
+                } catch (Throwable t) {
+                    failures[index] = t;
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Throwable failure : failures) {
+            assertNull(failure);
+        }
+        assertEquals(NUM_BUFFERS, producer.mReturned.size());
+        for (int idx = 0; idx < NUM_CONSUMERS; idx++) {
+            assertEquals(NUM_FRAMES, xfer.getLagTimes(idx).getCount());
+            assertEquals(NUM_FRAMES, xfer.getLagFrames(idx).getCount());
+            assertTrue(xfer.getLagFrames(idx).getMax() < NUM_BUFFERS);
+        }
+    }
+
+    @Test
+    public void testHandoffWaitsForTheLastConsumer() {
+        Endpoint producer = new Endpoint();
+        ArrayList<Endpoint> consumers = createConsumers();
+        FanOutBufferXfer xfer = new FanOutBufferXfer(producer, consumers, NUM_BUFFERS, true);
+        IBufferXfer.BufferXferInfo[] requests = new IBufferXfer.BufferXferInfo[NUM_CONSUMERS];
+        for (int idx = 0; idx < NUM_CONSUMERS; idx++) {
+            requests[idx] = consumers.get(idx).mReturned.poll();
+            consumers.get(idx).mReturned.clear();
+            requests[idx].buf = null;
+            assertTrue(xfer.sendBuffer(consumers.get(idx), requests[idx]));
+        }
+        IBufferXfer.BufferXferInfo frame = producer.mReturned.poll();
+        frame.buf.limit(5);
+        assertTrue(xfer.sendBuffer(producer, frame));
+        for (int idx = 0; idx < NUM_CONSUMERS; idx++) {
+            assertSame(requests[idx], consumers.get(idx).mReturned.poll());
+            assertSame(frame.buf, requests[idx].buf);
+            assertEquals(5, requests[idx].bytesRead);
+        }
+        for (int idx = 0; idx < NUM_CONSUMERS; idx++) {
+            assertEquals(NUM_BUFFERS - 1, producer.mReturned.size());
+            xfer.releaseBuffer(requests[idx]);
+        }
+        assertEquals(NUM_BUFFERS, producer.mReturned.size());
+        assertTrue(producer.mReturned.contains(frame));
+    }
+}
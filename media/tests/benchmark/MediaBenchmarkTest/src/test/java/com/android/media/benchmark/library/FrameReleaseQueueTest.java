@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plain JVM tests for FrameReleaseQueue, on a fake clock.
+ */
+public class FrameReleaseQueueTest {
+    private static final int FRAME_RATE = 30;
+    private static final long FRAME_PERIOD_US = 33333;
+    private static final long FRAME_PERIOD_NS = TimeUnit.SECONDS.toNanos(1) / FRAME_RATE;
+
+    /** Clock that only moves when told to, or when the release waits for a deadline. */
+    private static class FakeClock implements FrameReleaseQueue.Clock {
+        final AtomicLong mTimeNs = new AtomicLong();
+        // How late every wait for a deadline wakes up
+        final long mOvershootNs;
+
+        FakeClock(long overshootNs) {
+            mOvershootNs = overshootNs;
+        }
+
+        void advanceTo(long timeNs) {
+            mTimeNs.accumulateAndGet(timeNs, Math::max);
+        }
+
+        @Override
+        public long nanoTime() { return mTimeNs.get(); }
+
+        @Override
+        public void sleepUntil(long deadlineNs) {
+            if (deadlineNs > mTimeNs.get()) {
+                mTimeNs.accumulateAndGet(deadlineNs + mOvershootNs, Math::max);
+            }
+        }
+    }
+
+    /** A frame as told to the release listener. */
+    private static final class Release {
+        final int mFrameNumber;
+        final long mDeadlineNs;
+        final long mReleaseTimeNs;
+        final boolean mRendered;
+
+        Release(int frameNumber, long deadlineNs, long releaseTimeNs, boolean rendered) {
+            mFrameNumber = frameNumber;
+            mDeadlineNs = deadlineNs;
+            mReleaseTimeNs = releaseTimeNs;
+            mRendered = rendered;
+        }
+    }
+
+    private final List<Release> mReleases = new ArrayList<>();
+
+    @Before
+    public void clearLearnedDelays() {
+        AdaptivePreRollPolicy.clearLearnedDelays();
+    }
+
+    private FrameReleaseQueue createQueue(FakeClock clock) {
+        FrameReleaseQueue queue = new FrameReleaseQueue(true, FRAME_RATE, clock) {
+            @Override
+            protected void releaseOutputBuffer(int bufferId, boolean render) {
+                // No codec to hand the buffers back to
+            }
+        };
+        queue.setReleaseListener((frameNumber, deadlineNs, releaseTimeNs, rendered) ->
+                mReleases.add(new Release(frameNumber, deadlineNs, releaseTimeNs, rendered)));
+        return queue;
+    }
+
+    // Queues frames one period apart, the last one with the end of stream flag
+    private static void pushFrames(FrameReleaseQueue queue, int numFrames, long periodUs) {
+        for (int frame = 1; frame <= numFrames; frame++) {
+            queue.pushFrame(frame, frame, (frame - 1) * periodUs, frame == numFrames);
+        }
+    }
+
+    // The last frame is the end of stream, released as soon as it is taken from the queue
+    private void assertDeadlines(long... deadlinesNs) {
+        assertEquals(deadlinesNs.length + 1, mReleases.size());
+        for (int i = 0; i < deadlinesNs.length; i++) {
+            assertEquals(i + 1, mReleases.get(i).mFrameNumber);
+            assertEquals("frame " + (i + 1), deadlinesNs[i], mReleases.get(i).mDeadlineNs);
+        }
+    }
+
+    @Test
+    public void testDeadlinesFollowTimestamps() {
+        FakeClock clock = new FakeClock(0);
+        FrameReleaseQueue queue = createQueue(clock);
+        pushFrames(queue, 5, FRAME_PERIOD_US);
+        queue.stopFrameRelease();
+
+        assertDeadlines(0, FRAME_PERIOD_US * 1000, 2 * FRAME_PERIOD_US * 1000,
+                3 * FRAME_PERIOD_US * 1000);
+        for (int i = 0; i < 4; i++) {
+            Release release = mReleases.get(i);
+            assertTrue(release.mRendered);
+            assertEquals(release.mDeadlineNs, release.mReleaseTimeNs);
+        }
+        FrameReleaseStats stats = queue.getReleaseStats();
+        assertEquals(4, stats.getRenderedFrames());
+        assertEquals(0, stats.getDroppedFrames());
+        assertEquals(0, stats.getLateByHistogram().getMax());
+    }
+
+    @Test
+    public void testLateWakeupIsMeasured() {
+        long overshootNs = TimeUnit.MILLISECONDS.toNanos(2);
+        FakeClock clock = new FakeClock(overshootNs);
+        FrameReleaseQueue queue = createQueue(clock);
+        pushFrames(queue, 5, FRAME_PERIOD_US);
+        queue.stopFrameRelease();
+
+        assertEquals(5, mReleases.size());
+        assertFalse(mReleases.get(4).mRendered);
+        // The first frame is due when the release starts, no wait for it
+        for (int i = 1; i < 4; i++) {
+            Release release = mReleases.get(i);
+            assertTrue("late frames which were queued in time are still rendered",
+                    release.mRendered);
+            assertEquals(overshootNs, release.mReleaseTimeNs - release.mDeadlineNs);
+        }
+        FrameReleaseStats stats = queue.getReleaseStats();
+        assertEquals(4, stats.getRenderedFrames());
+        assertEquals(4, stats.getLateByHistogram().getCount());
+        assertEquals(overshootNs, stats.getLateByHistogram().getMax());
+        assertEquals(3, stats.getWakeupLateHistogram().getCount());
+        assertEquals(overshootNs, stats.getWakeupLateHistogram().getMin());
+        assertEquals(overshootNs, stats.getWakeupLateHistogram().getMax());
+    }
+
+    @Test
+    public void testFramesQueuedAfterTheirDeadlineAreDropped() {
+        FakeClock clock = new FakeClock(0);
+        FrameReleaseQueue queue = createQueue(clock);
+        queue.setReleasePolicy(new StrictDropPolicy());
+        queue.pushFrame(1, 1, 0);
+        // The decoder stalls for three frame periods
+        clock.advanceTo(3 * FRAME_PERIOD_NS);
+        queue.pushFrame(2, 2, FRAME_PERIOD_US);
+        queue.pushFrame(3, 3, 2 * FRAME_PERIOD_US);
+        queue.pushFrame(4, 4, 3 * FRAME_PERIOD_US);
+        queue.pushFrame(5, 5, 4 * FRAME_PERIOD_US);
+        queue.pushFrame(6, 6, 5 * FRAME_PERIOD_US, true);
+        queue.stopFrameRelease();
+
+        assertEquals(6, mReleases.size());
+        assertTrue(mReleases.get(0).mRendered);
+        assertFalse(mReleases.get(1).mRendered);
+        assertFalse(mReleases.get(2).mRendered);
+        // Frame 4 is due right when it is queued, within the threshold
+        assertTrue(mReleases.get(3).mRendered);
+        assertTrue(mReleases.get(4).mRendered);
+        FrameReleaseStats stats = queue.getReleaseStats();
+        assertEquals(3, stats.getRenderedFrames());
+        assertEquals(2, stats.getDroppedFrames());
+        // The end of stream is not released on schedule
+        assertEquals(5, stats.getQueueDepthStats().getCount());
+    }
+
+    @Test
+    public void testCatchUpRendersLateFramesFaster() throws InterruptedException {
+        FakeClock clock = new FakeClock(0);
+        FrameReleaseQueue queue = createQueue(clock);
+        queue.setReleasePolicy(new CatchUpPolicy(2.0));
+        final CountDownLatch firstRelease = new CountDownLatch(1);
+        queue.setReleaseListener((frameNumber, deadlineNs, releaseTimeNs, rendered) -> {
+            mReleases.add(new Release(frameNumber, deadlineNs, releaseTimeNs, rendered));
+            firstRelease.countDown();
+        });
+        queue.pushFrame(1, 1, 0);
+        // Released on time, before the stall
+        assertTrue(firstRelease.await(10, TimeUnit.SECONDS));
+        // The decoder stalls for three frame periods
+        long stallNs = 3 * FRAME_PERIOD_NS;
+        clock.advanceTo(stallNs);
+        for (int frame = 2; frame <= 8; frame++) {
+            queue.pushFrame(frame, frame, (frame - 1) * FRAME_PERIOD_US, frame == 8);
+        }
+        queue.stopFrameRelease();
+
+        assertEquals(8, mReleases.size());
+        for (int i = 0; i < 7; i++) {
+            assertTrue("frame " + (i + 1), mReleases.get(i).mRendered);
+        }
+        // Frame 2 goes out at once, then every half period until back on schedule
+        assertEquals(stallNs, mReleases.get(1).mReleaseTimeNs);
+        long halfPeriodNs = FRAME_PERIOD_US * 1000 / 2;
+        for (int i = 2; i <= 5; i++) {
+            assertEquals("frame " + (i + 1), stallNs + (i - 1) * halfPeriodNs,
+                    mReleases.get(i).mDeadlineNs);
+        }
+        assertEquals(6 * FRAME_PERIOD_US * 1000, mReleases.get(6).mDeadlineNs);
+        assertEquals(0, queue.getReleaseStats().getDroppedFrames());
+    }
+
+    @Test
+    public void testAdaptivePreRollLearnsTheOutputDelay() {
+        FakeClock clock = new FakeClock(0);
+        FrameReleaseQueue queue = createQueue(clock);
+        AdaptivePreRollPolicy policy =
+                new AdaptivePreRollPolicy(2, FrameReleasePolicy.DEFAULT_THRESHOLD_NS);
+        queue.setReleasePolicy(policy);
+        queue.setMime("video/av01");
+        queue.pushFrame(1, 1, 0);
+        // The second frame comes out well after it is due, as with a superframe
+        clock.advanceTo(TimeUnit.MILLISECONDS.toNanos(50));
+        queue.pushFrame(2, 2, FRAME_PERIOD_US);
+        queue.pushFrame(3, 3, 2 * FRAME_PERIOD_US);
+        queue.pushFrame(4, 4, 3 * FRAME_PERIOD_US);
+        // Once learned, frames later than the delay are dropped
+        clock.advanceTo(TimeUnit.MILLISECONDS.toNanos(200));
+        queue.pushFrame(5, 5, 4 * FRAME_PERIOD_US);
+        queue.pushFrame(6, 6, 5 * FRAME_PERIOD_US, true);
+        queue.stopFrameRelease();
+
+        long delayNs = TimeUnit.MILLISECONDS.toNanos(50) - FRAME_PERIOD_US * 1000;
+        assertEquals(delayNs, policy.getDelayNs());
+        assertEquals(delayNs, AdaptivePreRollPolicy.getLearnedDelayNs("video/av01", null));
+        assertEquals(6, mReleases.size());
+        for (int i = 1; i < 4; i++) {
+            assertTrue("frame " + (i + 1), mReleases.get(i).mRendered);
+            assertEquals(i * FRAME_PERIOD_US * 1000 + delayNs, mReleases.get(i).mDeadlineNs);
+        }
+        assertFalse(mReleases.get(4).mRendered);
+        FrameReleaseStats stats = queue.getReleaseStats();
+        assertEquals(4, stats.getRenderedFrames());
+        assertEquals(1, stats.getDroppedFrames());
+
+        // The next stream of the same decoder starts with the delay
+        mReleases.clear();
+        queue = createQueue(new FakeClock(0));
+        queue.setMime("video/av01");
+        pushFrames(queue, 3, FRAME_PERIOD_US);
+        queue.stopFrameRelease();
+        assertDeadlines(delayNs, FRAME_PERIOD_US * 1000 + delayNs);
+    }
+
+    @Test
+    public void testBuffersAreHandedBackInOrderBeforeStopReturns() {
+        final List<Integer> bufferIds = new ArrayList<>();
+        final List<Boolean> renders = new ArrayList<>();
+        FrameReleaseQueue queue = new FrameReleaseQueue(true, FRAME_RATE, new FakeClock(0)) {
+            @Override
+            protected void releaseOutputBuffer(int bufferId, boolean render) {
+                bufferIds.add(bufferId);
+                renders.add(render);
+            }
+        };
+        // More frames than the release worker ring holds
+        int numFrames = 1000;
+        pushFrames(queue, numFrames, FRAME_PERIOD_US);
+        queue.stopFrameRelease();
+
+        assertEquals(numFrames, bufferIds.size());
+        for (int i = 0; i < numFrames; i++) {
+            assertEquals(i + 1, (int) bufferIds.get(i));
+            assertEquals("frame " + (i + 1), i + 1 < numFrames, renders.get(i));
+        }
+    }
+
+    @Test
+    public void testFramesBeyondTheRingSizeAreKept() {
+        final CountDownLatch resume = new CountDownLatch(1);
+        // Holds the release on the first deadline it waits for
+        FakeClock clock = new FakeClock(0) {
+            @Override
+            public void sleepUntil(long deadlineNs) {
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.sleepUntil(deadlineNs);
+            }
+        };
+        FrameReleaseQueue queue = createQueue(clock);
+        int numFrames = 300;
+        pushFrames(queue, numFrames, FRAME_PERIOD_US);
+        resume.countDown();
+        queue.stopFrameRelease();
+
+        assertEquals(numFrames, mReleases.size());
+        for (int i = 0; i < numFrames; i++) {
+            assertEquals(i + 1, mReleases.get(i).mFrameNumber);
+            assertEquals(i * FRAME_PERIOD_US * 1000, mReleases.get(i).mDeadlineNs);
+        }
+        assertEquals(numFrames - 1, queue.getReleaseStats().getRenderedFrames());
+    }
+
+    @Test
+    public void testDeadlinesAreAlignedToVsync() {
+        long vsyncPeriodNs = 16666667;
+        FakeClock clock = new FakeClock(0);
+        FrameReleaseQueue queue = createQueue(clock);
+        queue.setVsyncPeriodNs(vsyncPeriodNs);
+        // 25 fps content on a 60 Hz display
+        pushFrames(queue, 4, 40000);
+        queue.stopFrameRelease();
+
+        assertDeadlines(0, 2 * vsyncPeriodNs, 5 * vsyncPeriodNs);
+    }
+
+    @Test
+    public void testLoopedTimestampsFollowThePreviousFrame() {
+        FakeClock clock = new FakeClock(0);
+        FrameReleaseQueue queue = createQueue(clock);
+        queue.pushFrame(1, 1, 0);
+        queue.pushFrame(2, 2, FRAME_PERIOD_US);
+        queue.pushFrame(3, 3, 2 * FRAME_PERIOD_US);
+        // The input starts over
+        queue.pushFrame(4, 4, 0);
+        queue.pushFrame(5, 5, FRAME_PERIOD_US);
+        queue.pushFrame(6, 6, 2 * FRAME_PERIOD_US, true);
+        queue.stopFrameRelease();
+
+        long loopStartNs = 2 * FRAME_PERIOD_US * 1000 + FRAME_PERIOD_NS;
+        assertDeadlines(0, FRAME_PERIOD_US * 1000, 2 * FRAME_PERIOD_US * 1000, loopStartNs,
+                loopStartNs + FRAME_PERIOD_US * 1000);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JMH benchmark of the buffer exchange between a producer thread and a consumer thread,
+ * comparing IBufferXferImpl, with and without handoff, with the lock based
+ * LockedBufferXfer it replaced.
+ * <p>
+ * Each side owns a fixed number of buffers, as a codec does, and only sends one when it
+ * has got one back. The "sent" secondary score is the number of buffers sent per second,
+ * attempts made while a side had no buffer to send are not counted.
+ * Run IBufferXferBenchmark.main on the unit test classpath, the JMH annotation processor
+ * generates the benchmark list when the unit tests are compiled.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IBufferXferBenchmark {
+    private static final int NUM_BUFFERS = 16;
+    private static final int BUFFER_SIZE = 4096;
+
+    /** A codec like end of the exchange, with a fixed set of buffers. */
+    private static final class Endpoint implements IBufferXfer.IReceiveBuffer {
+        private final IBufferXfer.BufferXferInfo[] mInfos;
+        private final AtomicInteger mAvailable = new AtomicInteger(NUM_BUFFERS);
+        private int mNext;
+
+        Endpoint(boolean copy) {
+            mInfos = new IBufferXfer.BufferXferInfo[NUM_BUFFERS];
+            for (int idx = 0; idx < NUM_BUFFERS; idx++) {
+                mInfos[idx] = new IBufferXfer.BufferXferInfo();
+                mInfos[idx].buf = copy ? ByteBuffer.allocateDirect(BUFFER_SIZE) : null;
+            }
+        }
+
+        boolean send(IBufferXfer.ISendBuffer xfer) {
+            if (mAvailable.get() == 0) {
+                return false;
+            }
+            mAvailable.decrementAndGet();
+            // Buffers come back in the order they were sent. In handoff mode sending a
+            // consumer buffer again returns the producer buffer it had on loan.
+            IBufferXfer.BufferXferInfo info = mInfos[mNext];
+            mNext = (mNext + 1) % NUM_BUFFERS;
+            if (info.buf != null) {
+                info.buf.clear();
+            }
+            return xfer.sendBuffer(this, info);
+        }
+
+        @Override
+        public boolean receiveBuffer(IBufferXfer.BufferXferInfo info) {
+            mAvailable.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public boolean connect(IBufferXfer.ISendBuffer receiver) {
+            return true;
+        }
+    }
+
+    @State(Scope.Group)
+    public static class Exchange {
+        // handoff lends the producer buffers to the consumer instead of copying them
+        @Param({"locked", "lockFree", "handoff"})
+        public String mImpl;
+
+        // Whether the frame data is copied, or only the buffers are exchanged
+        @Param({"false", "true"})
+        public boolean mCopy;
+
+        private Endpoint mProducer;
+        private Endpoint mConsumer;
+        private IBufferXfer.ISendBuffer mXfer;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            mProducer = new Endpoint(mCopy);
+            mConsumer = new Endpoint(mCopy);
+            if (mImpl.equals("locked")) {
+                mXfer = new LockedBufferXfer(mProducer, mConsumer);
+            } else {
+                mXfer = new IBufferXferImpl(mProducer, mConsumer, NUM_BUFFERS,
+                        mImpl.equals("handoff"));
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            if (mXfer instanceof LockedBufferXfer) {
+                ((LockedBufferXfer) mXfer).resetAll();
+            } else {
+                ((IBufferXferImpl) mXfer).resetAll();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long sent;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            sent = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("exchange")
+    @GroupThreads(1)
+    public void produce(Exchange exchange, Counters counters) {
+        if (exchange.mProducer.send(exchange.mXfer)) {
+            counters.sent++;
+        }
+    }
+
+    @Benchmark
+    @Group("exchange")
+    @GroupThreads(1)
+    public void consume(Exchange exchange, Counters counters) {
+        if (exchange.mConsumer.send(exchange.mXfer)) {
+            counters.sent++;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(IBufferXferBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import android.media.MediaCodec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plain JVM tests for IBufferXferImpl.
+ */
+public class IBufferXferImplTest {
+    private static final int NUM_FRAMES = 20000;
+    private static final int NUM_BUFFERS = 8;
+    private static final int BUFFER_SIZE = 64;
+
+    /** End of the exchange that gets its buffers back through a queue. */
+    private static class Endpoint implements IBufferXfer.IReceiveBuffer {
+        final ArrayBlockingQueue<IBufferXfer.BufferXferInfo> mReturned =
+                new ArrayBlockingQueue<>(NUM_BUFFERS);
+
+        Endpoint() {
+            for (int idx = 0; idx < NUM_BUFFERS; idx++) {
+                IBufferXfer.BufferXferInfo info = new IBufferXfer.BufferXferInfo();
+                info.buf = ByteBuffer.allocate(BUFFER_SIZE);
+                mReturned.add(info);
+            }
+        }
+
+        @Override
+        public boolean receiveBuffer(IBufferXfer.BufferXferInfo info) {
+            return mReturned.offer(info);
+        }
+
+        @Override
+        public boolean connect(IBufferXfer.ISendBuffer receiver) {
+            return true;
+        }
+    }
+
+    private static IBufferXfer.BufferXferInfo takeBuffer(Endpoint endpoint)
+            throws InterruptedException {
+        IBufferXfer.BufferXferInfo info = endpoint.mReturned.poll(10, TimeUnit.SECONDS);
+        assertNotNull(info);
+        return info;
+    }
+
+    @Test
+    public void testFramesArriveInOrder() throws InterruptedException {
+        final Endpoint producer = new Endpoint();
+        final Endpoint consumer = new Endpoint();
+        final IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer, NUM_BUFFERS);
+        final Throwable[] failures = new Throwable[2];
+        Thread producerThread = new Thread(() -> {
+            try {
+                for (int frame = 0; frame < NUM_FRAMES; frame++) {
+                    IBufferXfer.BufferXferInfo info = takeBuffer(producer);
+                    info.buf.clear();
+                    info.buf.limit(1 + frame % BUFFER_SIZE);
+                    info.buf.put(0, (byte) frame);
+                    info.presentationTimeUs = frame;
+                    assertTrue(xfer.sendBuffer(producer, info));
+                }
+            } catch (Throwable t) {
+                failures[0] = t;
+            }
+        });
+        Thread consumerThread = new Thread(() -> {
+            try {
+                for (int idx = 0; idx < NUM_BUFFERS; idx++) {
+                    assertTrue(xfer.sendBuffer(consumer, consumer.mReturned.poll()));
+                }
+                for (int frame = 0; frame < NUM_FRAMES; frame++) {
+                    IBufferXfer.BufferXferInfo info = takeBuffer(consumer);
+                    assertEquals(frame, info.presentationTimeUs);
+                    assertEquals(1 + frame % BUFFER_SIZE, info.bytesRead);
+                    assertEquals((byte) frame, info.buf.get(0));
+                    if (frame + NUM_BUFFERS < NUM_FRAMES) {
+                        info.buf.clear();
+                        assertTrue(xfer.sendBuffer(consumer, info));
+                    }
+                }
+            } catch (Throwable t) {
+                failures[1] = t;
+            }
+        });
+        producerThread.start();
+        consumerThread.start();
+        producerThread.join();
+        consumerThread.join();
+        assertNull(failures[0]);
+        assertNull(failures[1]);
+        assertEquals(NUM_BUFFERS, producer.mReturned.size());
+    }
+
+    @Test
+    public void testResetReturnsWaitingBuffers() {
+        Endpoint producer = new Endpoint();
+        Endpoint consumer = new Endpoint();
+        IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer);
+        for (int idx = 0; idx < NUM_BUFFERS; idx++) {
+            assertTrue(xfer.sendBuffer(consumer, consumer.mReturned.poll()));
+        }
+        assertEquals(0, consumer.mReturned.size());
+        xfer.resetAll();
+        assertEquals(NUM_BUFFERS, consumer.mReturned.size());
+        assertFalse(xfer.sendBuffer(producer, producer.mReturned.poll()));
+    }
+
+    @Test
+    public void testHandoffLendsProducerBuffer() {
+        Endpoint producer = new Endpoint();
+        Endpoint consumer = new Endpoint();
+        IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer, NUM_BUFFERS, true);
+        // A consumer that reads in place needs no buffer of its own
+        IBufferXfer.BufferXferInfo request = consumer.mReturned.poll();
+        consumer.mReturned.clear();
+        request.buf = null;
+        assertTrue(xfer.sendBuffer(consumer, request));
+        IBufferXfer.BufferXferInfo frame = producer.mReturned.poll();
+        ByteBuffer data = frame.buf;
+        data.limit(10);
+        frame.presentationTimeUs = 33;
+        assertTrue(xfer.sendBuffer(producer, frame));
+
+        // The consumer reads the producer buffer, which stays on loan until returned
+        assertSame(request, consumer.mReturned.poll());
+        assertTrue(request.isBorrowed());
+        assertSame(data, request.buf);
+        assertEquals(10, request.bytesRead);
+        assertEquals(33, request.presentationTimeUs);
+        assertEquals(NUM_BUFFERS - 1, producer.mReturned.size());
+
+        // Asking for the next buffer returns the one on loan
+        assertTrue(xfer.sendBuffer(consumer, request));
+        assertFalse(request.isBorrowed());
+        assertNull(request.buf);
+        assertEquals(NUM_BUFFERS, producer.mReturned.size());
+        xfer.resetAll();
+        assertSame(request, consumer.mReturned.poll());
+    }
+
+    @Test
+    public void testDropWhenRingIsFull() {
+        Endpoint producer = new Endpoint();
+        Endpoint consumer = new Endpoint();
+        IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer, 2);
+        xfer.setBackpressure(IBufferXferImpl.Backpressure.DROP);
+        for (int idx = 0; idx < 3; idx++) {
+            assertTrue(xfer.sendBuffer(producer, producer.mReturned.poll()));
+        }
+        assertEquals(1, xfer.getDroppedBuffers());
+        assertEquals(2, xfer.getMaxProducerQueueDepth());
+        assertEquals(NUM_BUFFERS - 2, producer.mReturned.size());
+        xfer.resetAll();
+        assertEquals(2, xfer.getStrandedBuffers());
+        assertEquals(NUM_BUFFERS, producer.mReturned.size());
+    }
+
+    @Test
+    public void testEndOfStreamIsNeverDropped() throws InterruptedException {
+        final Endpoint producer = new Endpoint();
+        final Endpoint consumer = new Endpoint();
+        final IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer, 2);
+        xfer.setBackpressure(IBufferXferImpl.Backpressure.DROP);
+        for (int idx = 0; idx < 2; idx++) {
+            assertTrue(xfer.sendBuffer(producer, producer.mReturned.poll()));
+        }
+        IBufferXfer.BufferXferInfo frame = producer.mReturned.poll();
+        frame.flag = MediaCodec.BUFFER_FLAG_KEY_FRAME;
+        assertTrue(xfer.sendBuffer(producer, frame));
+        assertTrue(producer.mReturned.remove(frame));
+        assertTrue(frame.dropped);
+        assertEquals(MediaCodec.BUFFER_FLAG_KEY_FRAME, frame.flag);
+
+        final IBufferXfer.BufferXferInfo last = producer.mReturned.poll();
+        last.flag = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+        final Throwable[] failures = new Throwable[1];
+        Thread producerThread = new Thread(() -> {
+            try {
+                assertTrue(xfer.sendBuffer(producer, last));
+            } catch (Throwable t) {
+                failures[0] = t;
+            }
+        });
+        producerThread.start();
+        // The end of stream waits for a free slot instead of being dropped
+        long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (producerThread.getState() != Thread.State.TIMED_WAITING
+                && producerThread.getState() != Thread.State.WAITING) {
+            assertTrue(System.nanoTime() < deadlineNs);
+            Thread.sleep(1);
+        }
+        IBufferXfer.BufferXferInfo[] requests = new IBufferXfer.BufferXferInfo[3];
+        for (int idx = 0; idx < requests.length; idx++) {
+            requests[idx] = consumer.mReturned.poll();
+        }
+        assertTrue(xfer.sendBuffer(consumer, requests[0]));
+        producerThread.join();
+        assertNull(failures[0]);
+        assertEquals(1, xfer.getDroppedBuffers());
+        assertFalse(last.dropped);
+        for (int idx = 1; idx < requests.length; idx++) {
+            assertTrue(xfer.sendBuffer(consumer, requests[idx]));
+        }
+        for (IBufferXfer.BufferXferInfo request : requests) {
+            assertFalse(request.dropped);
+            assertEquals(BUFFER_SIZE, request.bytesRead);
+        }
+        assertEquals(MediaCodec.BUFFER_FLAG_END_OF_STREAM, requests[2].flag);
+
+        // Consumer buffers dropped on a full ring are given back marked as such
+        for (int idx = 0; idx < 2; idx++) {
+            assertTrue(xfer.sendBuffer(consumer, consumer.mReturned.poll()));
+        }
+        IBufferXfer.BufferXferInfo request = consumer.mReturned.poll();
+        assertTrue(xfer.sendBuffer(consumer, request));
+        assertTrue(consumer.mReturned.contains(request));
+        assertTrue(request.dropped);
+        assertEquals(2, xfer.getDroppedBuffers());
+    }
+
+    @Test
+    public void testEndOfStreamFailsFromThePairingThread() {
+        final Endpoint producer = new Endpoint();
+        final IBufferXferImpl[] xfer = new IBufferXferImpl[1];
+        final boolean[] sent = new boolean[2];
+        // Fills the producer ring again, then sends the end of stream, from the pairing thread
+        Endpoint consumer = new Endpoint() {
+            private boolean mCalledBack = false;
+
+            @Override
+            public boolean receiveBuffer(IBufferXfer.BufferXferInfo info) {
+                if (!mCalledBack) {
+                    mCalledBack = true;
+                    sent[0] = xfer[0].sendBuffer(producer, producer.mReturned.poll());
+                    IBufferXfer.BufferXferInfo last = producer.mReturned.poll();
+                    last.flag = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+                    sent[1] = xfer[0].sendBuffer(producer, last);
+                }
+                return super.receiveBuffer(info);
+            }
+        };
+        xfer[0] = new IBufferXferImpl(producer, consumer, 2);
+        xfer[0].setBackpressure(IBufferXferImpl.Backpressure.DROP);
+        for (int idx = 0; idx < 2; idx++) {
+            assertTrue(xfer[0].sendBuffer(producer, producer.mReturned.poll()));
+        }
+        assertTrue(xfer[0].sendBuffer(consumer, consumer.mReturned.poll()));
+        assertTrue(sent[0]);
+        // Neither dropped nor waited for, which would never end
+        assertFalse(sent[1]);
+        assertEquals(0, xfer[0].getDroppedBuffers());
+    }
+
+    @Test
+    public void testBlockUntilConsumerCatchesUp() throws InterruptedException {
+        final Endpoint producer = new Endpoint();
+        final Endpoint consumer = new Endpoint();
+        final IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer, 2);
+        final Throwable[] failures = new Throwable[1];
+        Thread producerThread = new Thread(() -> {
+            try {
+                for (int idx = 0; idx < 3; idx++) {
+                    assertTrue(xfer.sendBuffer(producer, producer.mReturned.poll()));
+                }
+            } catch (Throwable t) {
+                failures[0] = t;
+            }
+        });
+        producerThread.start();
+        // The third buffer waits until a consumer buffer frees a slot
+        long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (producerThread.getState() != Thread.State.TIMED_WAITING
+                && producerThread.getState() != Thread.State.WAITING) {
+            assertTrue(System.nanoTime() < deadlineNs);
+            Thread.sleep(1);
+        }
+        assertEquals(0, xfer.getBlockedSends());
+        assertTrue(xfer.sendBuffer(consumer, consumer.mReturned.poll()));
+        producerThread.join();
+        assertNull(failures[0]);
+        assertEquals(1, xfer.getBlockedSends());
+        assertTrue(xfer.getWaitTimeNs() > 0);
+        assertEquals(0, xfer.getDroppedBuffers());
+        assertEquals(2, xfer.getMaxProducerQueueDepth());
+    }
+
+    private static IBufferXfer.BufferXferInfo createInfo(int size) {
+        IBufferXfer.BufferXferInfo info = new IBufferXfer.BufferXferInfo();
+        info.buf = ByteBuffer.allocate(size);
+        return info;
+    }
+
+    @Test
+    public void testLargeBufferIsSplitAcrossConsumerBuffers() {
+        Endpoint producer = new Endpoint();
+        Endpoint consumer = new Endpoint();
+        consumer.mReturned.clear();
+        IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer);
+        // 32 bytes per millisecond
+        xfer.setBytesPerSecond(32000);
+        IBufferXfer.BufferXferInfo frame = producer.mReturned.poll();
+        producer.mReturned.clear();
+        frame.buf = ByteBuffer.allocate(100);
+        for (int pos = 0; pos < 100; pos++) {
+            frame.buf.put(pos, (byte) pos);
+        }
+        frame.presentationTimeUs = 1000;
+        frame.flag = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+        assertTrue(xfer.sendBuffer(producer, frame));
+        int[] sizes = {32, 32, 32, 4};
+        int pos = 0;
+        for (int chunk = 0; chunk < sizes.length; chunk++) {
+            assertEquals(0, producer.mReturned.size());
+            IBufferXfer.BufferXferInfo request = createInfo(32);
+            assertTrue(xfer.sendBuffer(consumer, request));
+            assertSame(request, consumer.mReturned.poll());
+            boolean last = chunk == sizes.length - 1;
+            assertEquals(sizes[chunk], request.bytesRead);
+            assertEquals(1000 + chunk * 1000, request.presentationTimeUs);
+            assertEquals(last, request.isComplete);
+            assertEquals(last ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0, request.flag);
+            for (int idx = 0; idx < sizes[chunk]; idx++) {
+                assertEquals((byte) pos++, request.buf.get(idx));
+            }
+        }
+        assertSame(frame, producer.mReturned.poll());
+    }
+
+    @Test
+    public void testLargeBufferIsRejectedWithoutSplitting() {
+        Endpoint producer = new Endpoint();
+        Endpoint consumer = new Endpoint();
+        consumer.mReturned.clear();
+        producer.mReturned.clear();
+        IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer);
+        // A video frame larger than the consumer buffer is not queued in parts
+        IBufferXfer.BufferXferInfo frame = createInfo(100);
+        frame.presentationTimeUs = 1000;
+        frame.flag = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+        assertTrue(xfer.sendBuffer(producer, frame));
+        IBufferXfer.BufferXferInfo request = createInfo(32);
+        assertTrue(xfer.sendBuffer(consumer, request));
+        assertSame(request, consumer.mReturned.poll());
+        assertSame(frame, producer.mReturned.poll());
+        assertEquals(0, request.bytesRead);
+        assertEquals(0, request.buf.position());
+        assertTrue(request.isComplete);
+        assertEquals(MediaCodec.BUFFER_FLAG_END_OF_STREAM, request.flag);
+        assertEquals(1, xfer.getRejectedBuffers());
+    }
+
+    @Test
+    public void testChunkTimestampsFollowPreviousBuffers() {
+        Endpoint producer = new Endpoint();
+        Endpoint consumer = new Endpoint();
+        consumer.mReturned.clear();
+        IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer);
+        xfer.setSplitBuffers(true);
+        // 100 bytes every 100 ms, split into 50 byte chunks from the third buffer
+        int[] consumerSizes = {100, 100, 50, 50};
+        long[] expectedTimesUs = {0, 100000, 200000, 250000};
+        for (int idx = 0; idx < consumerSizes.length; idx++) {
+            if (idx < 3) {
+                IBufferXfer.BufferXferInfo frame = createInfo(100);
+                frame.presentationTimeUs = idx * 100000;
+                assertTrue(xfer.sendBuffer(producer, frame));
+            }
+            IBufferXfer.BufferXferInfo request = createInfo(consumerSizes[idx]);
+            assertTrue(xfer.sendBuffer(consumer, request));
+            assertSame(request, consumer.mReturned.poll());
+            assertEquals(expectedTimesUs[idx], request.presentationTimeUs);
+        }
+    }
+
+    @Test
+    public void testBatchIsSplitAtAccessUnitBoundaries() {
+        Endpoint producer = new Endpoint();
+        Endpoint consumer = new Endpoint();
+        consumer.mReturned.clear();
+        IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer);
+        // 32 bytes per millisecond
+        xfer.setBytesPerSecond(32000);
+        IBufferXfer.BufferXferInfo batch = producer.mReturned.poll();
+        producer.mReturned.clear();
+        batch.buf = ByteBuffer.allocate(160);
+        for (int pos = 0; pos < 160; pos++) {
+            batch.buf.put(pos, (byte) pos);
+        }
+        batch.accessUnits = new ArrayDeque<>();
+        int[] sizes = {30, 30, 100};
+        int offset = 0;
+        for (int idx = 0; idx < sizes.length; idx++) {
+            MediaCodec.BufferInfo unit = new MediaCodec.BufferInfo();
+            unit.set(offset, sizes[idx], idx * 1000,
+                    idx == sizes.length - 1 ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+            batch.accessUnits.add(unit);
+            offset += sizes[idx];
+        }
+        assertTrue(xfer.sendBuffers(producer, batch));
+
+        // The first two access units fit in one buffer, the third one is split
+        int[][] expectedUnits = {{0, 30, 0}, {30, 30, 1000}, {0, 64, 2000}, {0, 36, 4000}};
+        int[] unitsPerBuffer = {2, 1, 1};
+        IBufferXfer.BufferXferInfo request = createInfo(64);
+        int pos = 0;
+        int unit = 0;
+        for (int buffer = 0; buffer < unitsPerBuffer.length; buffer++) {
+            assertEquals(0, producer.mReturned.size());
+            request.buf.clear();
+            assertTrue(xfer.sendBuffer(consumer, request));
+            assertSame(request, consumer.mReturned.poll());
+            boolean last = buffer == unitsPerBuffer.length - 1;
+            assertEquals(last, request.isComplete);
+            assertEquals(last ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0, request.flag);
+            assertEquals(expectedUnits[unit][2], request.presentationTimeUs);
+            assertEquals(unitsPerBuffer[buffer], request.accessUnits.size());
+            int bytesRead = 0;
+            for (MediaCodec.BufferInfo info : request.accessUnits) {
+                assertEquals(expectedUnits[unit][0], info.offset);
+                assertEquals(expectedUnits[unit][1], info.size);
+                assertEquals(expectedUnits[unit][2], info.presentationTimeUs);
+                bytesRead += info.size;
+                unit++;
+            }
+            assertEquals(bytesRead, request.bytesRead);
+            for (int idx = 0; idx < bytesRead; idx++) {
+                assertEquals((byte) pos++, request.buf.get(idx));
+            }
+        }
+        assertEquals(160, pos);
+        assertSame(batch, producer.mReturned.poll());
+    }
+
+    @Test
+    public void testLargeAccessUnitIsRejectedWithoutSplitting() {
+        Endpoint producer = new Endpoint();
+        Endpoint consumer = new Endpoint();
+        consumer.mReturned.clear();
+        IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer);
+        IBufferXfer.BufferXferInfo batch = producer.mReturned.poll();
+        producer.mReturned.clear();
+        batch.buf = ByteBuffer.allocate(130);
+        batch.accessUnits = new ArrayDeque<>();
+        MediaCodec.BufferInfo small = new MediaCodec.BufferInfo();
+        small.set(0, 30, 0, 0);
+        batch.accessUnits.add(small);
+        MediaCodec.BufferInfo large = new MediaCodec.BufferInfo();
+        large.set(30, 100, 1000, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        batch.accessUnits.add(large);
+        assertTrue(xfer.sendBuffers(producer, batch));
+
+        IBufferXfer.BufferXferInfo request = createInfo(64);
+        assertTrue(xfer.sendBuffer(consumer, request));
+        assertSame(request, consumer.mReturned.poll());
+        assertFalse(request.isComplete);
+        assertEquals(30, request.bytesRead);
+        assertEquals(0, xfer.getRejectedBuffers());
+
+        // The large access unit is listed with no data, but keeps its end of stream flag
+        request.buf.clear();
+        assertTrue(xfer.sendBuffer(consumer, request));
+        assertSame(request, consumer.mReturned.poll());
+        assertTrue(request.isComplete);
+        assertEquals(0, request.bytesRead);
+        assertEquals(0, request.buf.position());
+        assertEquals(MediaCodec.BUFFER_FLAG_END_OF_STREAM, request.flag);
+        assertEquals(1, request.accessUnits.size());
+        assertEquals(0, request.accessUnits.peekFirst().size);
+        assertEquals(1000, request.accessUnits.peekFirst().presentationTimeUs);
+        assertEquals(1, xfer.getRejectedBuffers());
+        assertSame(batch, producer.mReturned.poll());
+    }
+
+    @Test
+    public void testQueuedTimeOfEachSide() throws InterruptedException {
+        Endpoint producer = new Endpoint();
+        Endpoint consumer = new Endpoint();
+        IBufferXferImpl xfer = new IBufferXferImpl(producer, consumer);
+        long sleepNs = TimeUnit.MILLISECONDS.toNanos(5);
+        // The producer is ahead for the first buffer, the consumer for the second one
+        assertTrue(xfer.sendBuffer(producer, producer.mReturned.poll()));
+        Thread.sleep(5);
+        assertTrue(xfer.sendBuffer(consumer, consumer.mReturned.poll()));
+        assertTrue(xfer.sendBuffer(consumer, consumer.mReturned.poll()));
+        Thread.sleep(5);
+        assertTrue(xfer.sendBuffer(producer, producer.mReturned.poll()));
+        assertTrue(xfer.getProducerQueuedTimeNs() >= sleepNs);
+        assertTrue(xfer.getConsumerQueuedTimeNs() >= sleepNs);
+        assertTrue(xfer.getTransferTimeNs() > 0);
+        assertEquals(0, xfer.getWaitTimeNs());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Plain JVM tests for SampleStore.
+ */
+public class SampleStoreTest {
+    private static final int NUM_SAMPLES = 5000;
+
+    private static int getSampleSize(int index) { return 1 + (index * 37) % 700; }
+
+    private static SampleStore buildStore() {
+        SampleStore.Builder builder = new SampleStore.Builder();
+        for (int index = 0; index < NUM_SAMPLES; index++) {
+            ByteBuffer sample = ByteBuffer.allocate(getSampleSize(index));
+            while (sample.hasRemaining()) {
+                sample.put((byte) index);
+            }
+            sample.flip();
+            builder.addSample(sample, index * 1000L, index % 3);
+        }
+        return builder.build();
+    }
+
+    private static void checkSamples(SampleStore.Reader reader) {
+        ByteBuffer dst = ByteBuffer.allocateDirect(1024);
+        for (int index = 0; index < NUM_SAMPLES; index++) {
+            dst.clear();
+            assertEquals(getSampleSize(index), reader.copySample(index, dst));
+            assertEquals(getSampleSize(index), dst.position());
+            for (int pos = 0; pos < dst.position(); pos++) {
+                assertEquals((byte) index, dst.get(pos));
+            }
+        }
+    }
+
+    @Test
+    public void testSamplesAreKeptInOrder() {
+        SampleStore store = buildStore();
+        assertEquals(NUM_SAMPLES, store.getNumSamples());
+        int dataSize = 0;
+        for (int index = 0; index < NUM_SAMPLES; index++) {
+            assertEquals(getSampleSize(index), store.getSize(index));
+            assertEquals(index * 1000L, store.getPresentationTimeUs(index));
+            assertEquals(index % 3, store.getFlags(index));
+            dataSize += getSampleSize(index);
+        }
+        assertEquals(dataSize, store.getDataSize());
+        checkSamples(store.newReader());
+    }
+
+    @Test
+    public void testConcurrentReaders() throws InterruptedException {
+        final SampleStore store = buildStore();
+        final Throwable[] failures = new Throwable[4];
+        Thread[] threads = new Thread[failures.length];
+        for (int idx = 0; idx < threads.length; idx++) {
+            final int reader = idx;
+            threads[idx] = new Thread(() -> {
+                try {
+                    checkSamples(store.newReader());
+                } catch (Throwable t) {
+                    failures[reader] = t;
+                }
+            });
+            threads[idx].start();
+        }
+        for (int idx = 0; idx < threads.length; idx++) {
+            threads[idx].join();
+            assertNull(failures[idx]);
+        }
+    }
+}
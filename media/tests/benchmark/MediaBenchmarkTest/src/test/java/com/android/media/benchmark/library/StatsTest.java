@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.media.benchmark.library;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plain JVM tests for the Stats recording path.
+ */
+public class StatsTest {
+    private static final int NUM_FRAMES = 100000;
+    private static final long FRAME_INTERVAL_NS = 33333333;
+    private static final int NUM_THREADS = 4;
+    private static final int IN_FLIGHT_FRAMES = 64;
+    private static final int WARM_UP_CHUNK = 1000;
+
+    private static long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Records frames the way the codec callbacks do, with the time passed in.
+    private static void recordFrames(Stats stats, int numFrames, long startTimeNs) {
+        for (int frame = 0; frame < numFrames; frame++) {
+            long timeNs = startTimeNs + frame * FRAME_INTERVAL_NS;
+            long ptsUs = frame * FRAME_INTERVAL_NS / 1000;
+            stats.addInputTime(timeNs);
+            stats.addInputPresentationTime(ptsUs, timeNs);
+            stats.addFrameSize(1000 + (frame % 100), timeNs);
+            stats.addOutputPresentationTime(ptsUs, timeNs + 1000000);
+            stats.addOutputTime(timeNs + 1000000);
+        }
+    }
+
+    /*
+     * Warms up the recording path once, in ring and reserved mode alike, before any
+     * allocation is measured. Code compiled for one mode only would be deoptimized on the
+     * first frames of the other, and the deoptimization allocates.
+     */
+    @BeforeClass
+    public static void warmUpRecording() {
+        Stats ringStats = new Stats(4096);
+        Stats reservedStats = new Stats();
+        reservedStats.reserve(NUM_FRAMES);
+        ringStats.setStartTime(0);
+        reservedStats.setStartTime(0);
+        for (int frame = 0; frame < NUM_FRAMES; frame += WARM_UP_CHUNK) {
+            recordFrames(ringStats, WARM_UP_CHUNK, frame * FRAME_INTERVAL_NS);
+            recordFrames(reservedStats, WARM_UP_CHUNK, frame * FRAME_INTERVAL_NS);
+        }
+    }
+
+    // Returns the bytes allocated while recording numFrames frames, in a single run.
+    private static long measureAllocatedBytes(Stats stats, int numFrames) {
+        // The first frame creates the recorder of this thread
+        recordFrames(stats, 1, 0);
+        stats.reset();
+        stats.setStartTime(0);
+        long overhead = getAllocatedBytes();
+        overhead = getAllocatedBytes() - overhead;
+        long before = getAllocatedBytes();
+        recordFrames(stats, numFrames, 0);
+        return getAllocatedBytes() - before - overhead;
+    }
+
+    @Test
+    public void testRingModeRecordingDoesNotAllocate() {
+        Stats stats = new Stats(4096);
+        long allocatedBytes = measureAllocatedBytes(stats, NUM_FRAMES);
+        assertEquals("Bytes allocated while recording " + NUM_FRAMES + " frames", 0,
+                allocatedBytes);
+        assertEquals(NUM_FRAMES, stats.getOutputCount());
+    }
+
+    @Test
+    public void testReservedRecordingDoesNotAllocate() {
+        Stats stats = new Stats();
+        stats.reserve(NUM_FRAMES);
+        long allocatedBytes = measureAllocatedBytes(stats, NUM_FRAMES);
+        assertEquals("Bytes allocated while recording " + NUM_FRAMES + " frames", 0,
+                allocatedBytes);
+        assertEquals(NUM_FRAMES, stats.getOutputTimers().size());
+    }
+
+    @Test
+    public void testRingModeKeepsTotals() {
+        Stats stats = new Stats(16);
+        stats.setStartTime(0);
+        recordFrames(stats, NUM_FRAMES, 0);
+        assertEquals(16, stats.getOutputTimers().size());
+        assertEquals((NUM_FRAMES - 1) * FRAME_INTERVAL_NS + 1000000, stats.getTotalTime());
+        long expectedSize = 0;
+        for (int frame = 0; frame < NUM_FRAMES; frame++) {
+            expectedSize += 1000 + (frame % 100);
+        }
+        assertEquals(expectedSize, stats.getTotalSize());
+        assertEquals(1000000, stats.getLatencyTracker().getResidencyHistogram().getMax());
+    }
+
+    @Test
+    public void testIntervalMinMaxIncludesEveryOutput() {
+        Stats stats = new Stats();
+        stats.setStartTime(0);
+        // Decreasing intervals: 50, 40, 30, 20, 10
+        long timeNs = 0;
+        for (long intervalNs = 50; intervalNs > 0; intervalNs -= 10) {
+            timeNs += intervalNs;
+            stats.addOutputTime(timeNs);
+        }
+        stats.addOutputTime(timeNs + 100);
+        assertEquals(10, stats.getOutputIntervalStats().getMin());
+        assertEquals(100, stats.getOutputIntervalStats().getMax());
+        assertTrue(stats.getFrameIntervalStats().getStdDev() > 0);
+    }
+
+    private static void joinAll(Thread[] threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testConcurrentRecordersKeepEverySample() throws InterruptedException {
+        final Stats stats = new Stats();
+        stats.setStartTime(0);
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int idx = 0; idx < NUM_THREADS; idx++) {
+            final long offsetNs = idx * 1000;
+            threads[idx] = new Thread(() -> recordFrames(stats, NUM_FRAMES, offsetNs));
+        }
+        joinAll(threads);
+        assertEquals(NUM_THREADS * NUM_FRAMES, stats.getOutputCount());
+        assertEquals(NUM_THREADS * NUM_FRAMES, stats.getInputCount());
+        assertEquals(NUM_THREADS * NUM_FRAMES, stats.getOutputTimers().size());
+        assertEquals(NUM_THREADS * (NUM_FRAMES - 1), stats.getFrameIntervalStats().getCount());
+        assertEquals(FRAME_INTERVAL_NS, stats.getFrameIntervalStats().getMean(), 1e-3);
+        assertEquals((NUM_FRAMES - 1) * FRAME_INTERVAL_NS + (NUM_THREADS - 1) * 1000 + 1000000,
+                stats.getTotalTime());
+        assertEquals(NUM_THREADS * NUM_FRAMES, sumFrames(stats.getThroughputTimeline()));
+    }
+
+    private static long sumFrames(ThroughputTimeline timeline) {
+        long frames = 0;
+        for (int bucket = 0; bucket < timeline.getNumBuckets(); bucket++) {
+            frames += timeline.getFrames(bucket);
+        }
+        return frames;
+    }
+
+    @Test
+    public void testInputAndOutputOnDifferentThreads() throws InterruptedException {
+        final Stats stats = new Stats(1024);
+        stats.setStartTime(0);
+        final BlockingQueue<Long> inFlight = new ArrayBlockingQueue<>(IN_FLIGHT_FRAMES);
+        Thread[] threads = new Thread[2];
+        threads[0] = new Thread(() -> {
+            try {
+                for (long frame = 0; frame < NUM_FRAMES; frame++) {
+                    stats.addInputTime(frame * FRAME_INTERVAL_NS);
+                    stats.addInputPresentationTime(frame, frame * FRAME_INTERVAL_NS);
+                    inFlight.put(frame);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        threads[1] = new Thread(() -> {
+            try {
+                for (int frame = 0; frame < NUM_FRAMES; frame++) {
+                    long pts = inFlight.take();
+                    stats.addOutputPresentationTime(pts, pts * FRAME_INTERVAL_NS + 1000);
+                    stats.addOutputTime(pts * FRAME_INTERVAL_NS + 1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        joinAll(threads);
+        LatencyTracker tracker = stats.getLatencyTracker();
+        assertEquals(NUM_FRAMES, tracker.getResidencyHistogram().getCount());
+        assertEquals(0, tracker.getUnmatchedOutputs());
+        assertEquals(0, tracker.getPipelineDepth());
+        assertEquals(1000, tracker.getResidencyHistogram().getMax());
+        assertTrue(tracker.getPipelineDepthStats().getMax() <= IN_FLIGHT_FRAMES + 2);
+        // The n-th output is matched to the n-th input recorded on the other thread
+        LatencyHistogram latency = stats.getInputToOutputHistogram();
+        assertEquals(NUM_FRAMES, latency.getCount());
+        assertEquals(1000, latency.getMin());
+        assertEquals(1000, latency.getMax());
+    }
+
+    @Test
+    public void testMergeSpansAllInstances() {
+        Stats first = new Stats();
+        first.setStartTime(0);
+        recordFrames(first, 100, 0);
+        Stats second = new Stats();
+        second.setStartTime(FRAME_INTERVAL_NS);
+        recordFrames(second, 200, FRAME_INTERVAL_NS);
+        Stats merged = new Stats();
+        merged.merge(first);
+        merged.merge(second);
+        assertEquals(0, merged.getStartTime());
+        assertEquals(300, merged.getOutputCount());
+        assertEquals(300, merged.getOutputTimers().size());
+        assertEquals(200 * FRAME_INTERVAL_NS + 1000000, merged.getTotalTime());
+        assertEquals(first.getTotalSize() + second.getTotalSize(), merged.getTotalSize());
+        assertEquals(300, merged.getLatencyTracker().getResidencyHistogram().getCount());
+        // The sources are left untouched
+        assertEquals(100, first.getOutputCount());
+    }
+
+    @Test
+    public void testFrameReleasesAreMergedAndReset() {
+        FrameReleaseStats releases = new FrameReleaseStats();
+        releases.addFrame(1000, true);
+        releases.addFrame(-1000, true);
+        releases.addFrame(50000000, false);
+        releases.addWakeup(2000);
+        releases.addQueueDepth(3);
+        Stats first = new Stats();
+        first.setStartTime(0);
+        recordFrames(first, 10, 0);
+        first.addFrameReleases(releases);
+        first.addFrameReleases(releases);
+        Stats merged = new Stats();
+        merged.merge(first);
+        FrameReleaseStats mergedReleases = merged.getFrameReleaseStats();
+        assertEquals(4, mergedReleases.getRenderedFrames());
+        assertEquals(2, mergedReleases.getDroppedFrames());
+        // Early releases count as on time, dropped frames are not in the distribution
+        assertEquals(0, mergedReleases.getLateByHistogram().getMin());
+        assertEquals(4, mergedReleases.getLateByHistogram().getCount());
+        assertEquals(2, mergedReleases.getWakeupLateHistogram().getCount());
+        assertEquals(3, mergedReleases.getQueueDepthStats().getMax());
+        merged.reset();
+        assertEquals(0, merged.getFrameReleaseStats().getRenderedFrames());
+        assertEquals(0, merged.getFrameReleaseStats().getLateByHistogram().getCount());
+    }
+}